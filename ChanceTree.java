@@ -0,0 +1,291 @@
+/*****
+ * A Monte Carlo search tree with explicit decision and chance nodes that is kept for the whole game.
+ *
+ * A decision node is a position with a known card to place; its children are chance nodes, one per empty cell.
+ * A chance node is the position after that placement; its children are decision nodes, one per next card drawn,
+ * created as trials draw them. Because the next card is part of the tree rather than of a single deal, no
+ * statistics have to be thrown away when a new deal is shuffled. After a play, the chance node of the chosen
+ * cell waits for the next real card; the decision node for that card then becomes the new root (re-rooting), so
+ * everything searched below it so far is reused.
+ *
+ * Nodes live in parallel primitive arrays like MCTreeArena. Children are linked through first-child/next-sibling
+ * indices, since the card outcomes of a chance node are added one at a time. Re-rooting copies the reachable
+ * subtree into a second set of arrays, so the arena never fills up with unreachable nodes.
+ * A tree is used by one thread only.
+ */
+
+import java.util.SplittableRandom;
+
+public class ChanceTree {
+    public static final int NONE = -1;
+
+    private int capacity; /* maximum number of nodes */
+    private int[] parent, firstChild, nextSibling; /* tree links */
+    private byte[] move; /* cell (chance nodes) or drawn card id (decision nodes) */
+    private boolean[] chance; /* whether each node is a chance node */
+    private double[] visits, totalValue; /* statistics */
+    /* the same arrays again, to copy the reachable subtree into when re-rooting */
+    private int[] parent2, firstChild2, nextSibling2;
+    private byte[] move2;
+    private boolean[] chance2;
+    private double[] visits2, totalValue2;
+    private int[] stack, oldIndex, newIndex; /* scratch arrays for copying subtrees */
+    private int size; /* number of nodes in use */
+    private int root = NONE; /* current root: a decision node during a search, the chosen chance node in between */
+
+    /**
+     * Create an empty tree with room for the given number of nodes. When the tree is full, trials stop adding
+     * nodes and just roll out from where they are.
+     * @param capacity maximum number of nodes
+     */
+    public ChanceTree(int capacity) {
+        this.capacity = capacity;
+        parent = new int[capacity]; firstChild = new int[capacity]; nextSibling = new int[capacity];
+        move = new byte[capacity]; chance = new boolean[capacity];
+        visits = new double[capacity]; totalValue = new double[capacity];
+        parent2 = new int[capacity]; firstChild2 = new int[capacity]; nextSibling2 = new int[capacity];
+        move2 = new byte[capacity]; chance2 = new boolean[capacity];
+        visits2 = new double[capacity]; totalValue2 = new double[capacity];
+        stack = new int[capacity]; oldIndex = new int[capacity]; newIndex = new int[capacity];
+    }
+
+    /**
+     * Forget the whole tree (new game).
+     */
+    public void clear() {
+        size = 0;
+        root = NONE;
+    }
+
+    /**
+     * Make the decision node for the given card the root: the matching card outcome of the chance node chosen
+     * by the last play if there is one (reusing its subtree), a new node otherwise.
+     * @param cardId card to place
+     * @return number of visits the new root already has
+     */
+    public double enterCard(int cardId) {
+        int newRoot = NONE;
+        if (root != NONE && chance[root]) {
+            for (int child = firstChild[root]; child != NONE; child = nextSibling[child]) {
+                if (move[child] == cardId) {
+                    newRoot = child;
+                }
+            }
+        }
+        if (newRoot == NONE) {
+            size = 0;
+            root = newNode(NONE, cardId, false);
+        }
+        else {
+            compact(newRoot);
+        }
+        return visits[root];
+    }
+
+    /**
+     * Make the chance node of the given cell (a child of the root) the root, to wait for the next card.
+     * @param cell chosen cell
+     */
+    public void play(int cell) {
+        for (int child = firstChild[root]; child != NONE; child = nextSibling[child]) {
+            if (move[child] == cell) {
+                root = child;
+                return;
+            }
+        }
+        root = NONE; /* the cell was never searched: nothing to reuse */
+    }
+
+    /**
+     * Append a node (which must fit) and return its index.
+     */
+    private int newNode(int parentIndex, int nodeMove, boolean isChance) {
+        int node = size++;
+        parent[node] = parentIndex;
+        firstChild[node] = NONE;
+        nextSibling[node] = NONE;
+        move[node] = (byte) nodeMove;
+        chance[node] = isChance;
+        visits[node] = 0;
+        totalValue[node] = 0;
+        return node;
+    }
+
+    /**
+     * Copy the subtree of the given node into the spare arrays, with the node as root at index 0, and swap.
+     */
+    private void compact(int newRoot) {
+        /* number the subtree's nodes in depth-first order */
+        int newSize = 0;
+        int top = 0;
+        stack[top++] = newRoot;
+        while (top > 0) {
+            int node = stack[--top];
+            oldIndex[newSize] = node;
+            newIndex[node] = newSize++;
+            for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+                stack[top++] = child;
+            }
+        }
+        /* copy them, translating links; the new root has no parent and no siblings */
+        for (int i = 0; i < newSize; i++) {
+            int node = oldIndex[i];
+            parent2[i] = i == 0 ? NONE : newIndex[parent[node]];
+            firstChild2[i] = firstChild[node] == NONE ? NONE : newIndex[firstChild[node]];
+            nextSibling2[i] = (i == 0 || nextSibling[node] == NONE) ? NONE : newIndex[nextSibling[node]];
+            move2[i] = move[node];
+            chance2[i] = chance[node];
+            visits2[i] = visits[node];
+            totalValue2[i] = totalValue[node];
+        }
+        /* swap */
+        int[] ti; byte[] tb; boolean[] tz; double[] td;
+        ti = parent; parent = parent2; parent2 = ti;
+        ti = firstChild; firstChild = firstChild2; firstChild2 = ti;
+        ti = nextSibling; nextSibling = nextSibling2; nextSibling2 = ti;
+        tb = move; move = move2; move2 = tb;
+        tz = chance; chance = chance2; chance2 = tz;
+        td = visits; visits = visits2; visits2 = td;
+        td = totalValue; totalValue = totalValue2; totalValue2 = td;
+        size = newSize;
+        root = 0;
+    }
+
+    /**
+     * Do one trial from the root (a decision node) for the kernel's current deal, whose first card is the root's.
+     * The context's board must hold the root position; it is restored before returning.
+     * @param context search context: parameters, board holding the root position and kernel holding the deal
+     * @return depth of the position rolled out (number of moves from the root)
+     */
+    public int trial(SearchContext context) {
+        LineBoard board = context.board;
+        RolloutKernel kernel = context.kernel;
+        int startCards = board.getNumCards();
+        int dealt = 0;
+        int node = root;
+        while (board.getNumCards() < LineBoard.NUM_POS) {
+            /* decision node: expand it the first time, then pick a cell by UCT */
+            boolean expanded = firstChild[node] != NONE;
+            if (!expanded) {
+                if (size + LineBoard.NUM_POS - board.getNumCards() > capacity) {
+                    break; /* tree full: roll out from here */
+                }
+                int last = NONE;
+                for (int pos = LineBoard.NUM_POS - 1; pos >= 0; pos--) {
+                    if (board.isEmpty(pos)) {
+                        int child = newNode(node, pos, true);
+                        nextSibling[child] = last;
+                        last = child;
+                    }
+                }
+                firstChild[node] = last;
+            }
+            node = bestUCTChild(node, context.selectionConstant, context.random);
+            board.make(move[node], kernel.getCard(dealt++));
+            if (!expanded || board.getNumCards() == LineBoard.NUM_POS) {
+                break; /* new leaf (or end of game): roll out from the chance node */
+            }
+
+            /* chance node: follow the outcome for the deal's next card, adding it the first time */
+            int card = kernel.getCard(dealt);
+            int outcome = firstChild[node];
+            while (outcome != NONE && move[outcome] != card) {
+                outcome = nextSibling[outcome];
+            }
+            if (outcome == NONE) {
+                if (size == capacity) {
+                    break;
+                }
+                outcome = newNode(node, card, false);
+                nextSibling[outcome] = firstChild[node];
+                firstChild[node] = outcome;
+                node = outcome;
+                break; /* new leaf: roll out from the decision node */
+            }
+            node = outcome;
+        }
+
+        /* Do roll out, then update the stats for each node from the leaf back up to the root */
+        double backpropagationValue = context.rollOut(dealt);
+        for (int n = node; n != NONE; n = parent[n]) {
+            visits[n]++;
+            totalValue[n] += backpropagationValue;
+        }
+
+        /* Take back the moves made on the way down */
+        while (board.getNumCards() > startCards) {
+            board.undo();
+        }
+        return dealt;
+    }
+
+    /**
+     * Return the child of the given decision node with the max UCB1 value (small random tie breaker).
+     * @param node expanded decision node
+     * @param selectionConstant UCT exploration constant
+     * @param random random number generator for tie breaking
+     * @return index of the best child
+     */
+    public int bestUCTChild(int node, double selectionConstant, SplittableRandom random) {
+        int bestNode = NONE;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        double logVisits = Math.log(visits[node] + 1);
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+            double childVisits = visits[child] + MCTreeNode.smallTieBreaker;
+            double uctValue = totalValue[child] / childVisits +
+            selectionConstant * Math.sqrt(logVisits / childVisits) +
+            random.nextDouble() * MCTreeNode.smallTieBreaker;
+            if (uctValue > bestValue) {
+                bestNode = child;
+                bestValue = uctValue;
+            }
+        }
+        return bestNode;
+    }
+
+    /**
+     * @return index of the root
+     */
+    public int getRoot() {
+        return root;
+    }
+
+    /**
+     * @param node node index
+     * @return index of the node's first child, or NONE
+     */
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    /**
+     * @param node node index
+     * @return index of the node's next sibling, or NONE
+     */
+    public int getNextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    /**
+     * @param node node index
+     * @return number of visits of the node
+     */
+    public double getVisits(int node) {
+        return visits[node];
+    }
+
+    /**
+     * @param node node index
+     * @return cell of a chance node's move
+     */
+    public int getCell(int node) {
+        return move[node];
+    }
+
+    /**
+     * @return number of nodes in use
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Deadline - cheap time checks for search loops, with nanosecond budgets.
+ *
+ * A search loop calls isExpired() (or poll()) once per iteration. Only every stride-th call reads System.nanoTime();
+ * the other calls just count down. The stride is recalibrated at every clock read from the measured cost of the
+ * iterations since the last read, so that the clock is read about every checkIntervalNanos whatever an iteration
+ * costs: a loop of cheap rollouts checks the clock once per many rollouts, a loop of expensive trials at nearly every
+ * iteration. The stride at most doubles per read, so a sudden slowdown overshoots the deadline by little, and it
+ * is kept from one start to the next, so repeated short budgets (one per candidate play) need no new warm-up.
+ *
+ * Budgets are in nanoseconds, so budgets below a millisecond (which System.currentTimeMillis() rounds away)
+ * still mean something. A deadline is used by one thread only.
+ */
+public class Deadline {
+
+	public static final long NANOS_PER_MILLI = 1000000L;
+
+	public long checkIntervalNanos = 50000; // target time between two clock reads (50 microseconds)
+	private long endNanos; // System.nanoTime() at which the deadline expires
+	private long lastNanos; // System.nanoTime() at the last clock read
+	private int stride = 1; // iterations between two clock reads
+	private int countdown = 1; // iterations until the next clock read
+
+	/**
+	 * Start a deadline the given number of nanoseconds from now.
+	 * @param budgetNanos time budget in nanoseconds
+	 */
+	public void start(long budgetNanos) {
+		lastNanos = System.nanoTime();
+		endNanos = lastNanos + budgetNanos;
+		countdown = stride; // keep the calibration of the previous loop (searches repeat the same kind of loop)
+	}
+
+	/**
+	 * Start a deadline that expires at the given System.nanoTime() value.
+	 * @param endNanos expiry time (System.nanoTime())
+	 */
+	public void startUntil(long endNanos) {
+		start(endNanos - System.nanoTime());
+	}
+
+	/**
+	 * @return expiry time (System.nanoTime())
+	 */
+	public long getEndNanos() {
+		return endNanos;
+	}
+
+	/**
+	 * Count one iteration; every stride-th iteration, read the clock and recalibrate the stride.
+	 * @return whether the clock was read by this call (getNanos() then holds the time)
+	 */
+	public boolean poll() {
+		if (--countdown > 0)
+			return false;
+		long now = System.nanoTime();
+		long elapsed = now - lastNanos;
+		lastNanos = now;
+		/* stride for the next interval: iterations that fit in checkIntervalNanos at the measured rate */
+		long next = elapsed <= 0 ? 2L * stride : stride * checkIntervalNanos / elapsed;
+		stride = (int) Math.max(1, Math.min(next, 2L * stride));
+		countdown = stride;
+		return true;
+	}
+
+	/**
+	 * Count one iteration and return whether the deadline has passed (checked only at the clock reads).
+	 * @return whether the deadline has passed
+	 */
+	public boolean isExpired() {
+		return poll() && lastNanos - endNanos >= 0;
+	}
+
+	/**
+	 * @return System.nanoTime() at the last clock read
+	 */
+	public long getNanos() {
+		return lastNanos;
+	}
+
+	/**
+	 * Measure the overshoot of loops of cheap and expensive iterations with a sub-millisecond budget.
+	 * @param args (not used)
+	 */
+	public static void main(String[] args) {
+		Deadline deadline = new Deadline();
+		for (int work : new int[] {10, 1000, 100000}) {
+			long iterations = 0;
+			double sink = 0;
+			long start = System.nanoTime();
+			deadline.start(500000); // half a millisecond
+			do {
+				for (int i = 0; i < work; i++)
+					sink += Math.sqrt(i);
+				iterations++;
+			} while (!deadline.isExpired());
+			long elapsed = System.nanoTime() - start;
+			System.out.printf("work %6d: %8d iterations, stopped after %7d ns (final stride %d)%s\n",
+					work, iterations, elapsed, deadline.stride, sink < 0 ? "!" : "");
+		}
+	}
+}
@@ -0,0 +1,388 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * EndgameSolver - exact expectimax for the last plays of a game.
+ *
+ * With few empty cells left, the rest of the game can be enumerated: the card in hand goes to each empty cell
+ * (decision), then each undealt card is equally likely to come next (chance), and so on until the grid is full.
+ * The solver returns the cell with the highest expected final score, exactly, where Monte Carlo search would
+ * spend its budget on a noisy estimate.
+ *
+ * The value of a chance node is memoized, so that draws leading to the same board in a different order, or to boards
+ * equal up to a suit permutation, are solved once, and positions solved for one play are found again at the next
+ * plays of the game. Entries are found by PositionKey, but a 64-bit key may be shared by positions that are not
+ * equivalent (a hash collision, or a case PositionKey does not tell apart), so each entry also stores its board in
+ * canonical form: the card of every cell with its suit relabeled by the position's SuitIsomorphism. A lookup only
+ * returns the value of an entry whose canonical board is equal, i.e. of a position equal up to a suit permutation,
+ * which has the same future; positions that are only equal up to a row/column symmetry are solved separately. The
+ * last empty cell needs no recursion: its value is the current score plus the average score change of placing each
+ * undealt card there. A solver is used by one thread only; main checks it against plain expectimax without
+ * memoization on random positions.
+ */
+public class EndgameSolver {
+
+	private static final int NUM_POS = LineBoard.NUM_POS;
+	private static final int SIZE = LineBoard.SIZE;
+
+	private final LineBoard board; // position being solved (make/undo)
+	private final int[] undealt = new int[Card.NUM_CARDS]; // undealt cards at the root
+	private int numUndealt; // number of undealt cards at the root
+	private final boolean[] drawn = new boolean[Card.NUM_CARDS]; // whether a card has been drawn since the root
+	private final int[] deltasA = new int[Card.NUM_CARDS]; // score change of each undealt card in the first of two cells
+	private final int[] deltasB = new int[Card.NUM_CARDS]; // same for the second cell
+	private final Memo memo; // values of the chance nodes
+	private final PositionKey positionKey = new PositionKey(); // keys of the chance nodes
+	private final long[] form = new long[Memo.FORM_LONGS]; // canonical board of the chance node being looked up
+	private final SuitIsomorphism suits = new SuitIsomorphism(); // suit state of the cards on the board
+	private long nodes; // chance nodes evaluated in the current solve
+	private double value; // expected final score of the best cell of the last solve
+
+	/**
+	 * Values of positions, found by position key and checked against the canonical board stored with each entry.
+	 * Entries live in an open-addressing array (linear probing) in which positions may share a key; once three
+	 * quarters of the slots are in use, no value is stored until the memo is cleared.
+	 */
+	private static class Memo {
+		static final int FORM_LONGS = 3; // longs of a canonical board: ten cells of six bits per long
+		static final int CELLS_PER_LONG = 10;
+		static final int EMPTY_CODE = 63; // code of an empty cell in a canonical board
+
+		private final long[] keys; // position key of each entry, 0 for an empty slot
+		private final long[] forms; // canonical board of each entry (FORM_LONGS per slot)
+		private final double[] values; // expected final score of each entry
+		private final int mask; // capacity - 1
+		private final int maxSize; // stop storing values beyond this load
+		private int size; // number of entries in use
+
+		Memo(int capacity) {
+			int slots = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+			keys = new long[slots];
+			forms = new long[slots * FORM_LONGS];
+			values = new double[slots];
+			mask = slots - 1;
+			maxSize = slots / 4 * 3;
+		}
+
+		void clear() {
+			Arrays.fill(keys, 0L);
+			size = 0;
+		}
+
+		/**
+		 * Return the value of the position with the given key and canonical board, NaN if unknown.
+		 */
+		double get(long key, long[] form) {
+			if (key == 0)
+				key = 1;
+			for (int slot = (int) (key ^ (key >>> 32)) & mask; keys[slot] != 0; slot = (slot + 1) & mask)
+				if (keys[slot] == key && hasForm(slot, form))
+					return values[slot];
+			return Double.NaN;
+		}
+
+		/**
+		 * Store the value of a position not in the memo (unless it is full).
+		 */
+		void put(long key, long[] form, double value) {
+			if (size >= maxSize)
+				return;
+			if (key == 0)
+				key = 1;
+			int slot = (int) (key ^ (key >>> 32)) & mask;
+			while (keys[slot] != 0)
+				slot = (slot + 1) & mask;
+			keys[slot] = key;
+			System.arraycopy(form, 0, forms, slot * FORM_LONGS, FORM_LONGS);
+			values[slot] = value;
+			size++;
+		}
+
+		private boolean hasForm(int slot, long[] form) {
+			for (int i = 0; i < FORM_LONGS; i++)
+				if (forms[slot * FORM_LONGS + i] != form[i])
+					return false;
+			return true;
+		}
+	}
+
+	/**
+	 * Create a solver.
+	 * @param system point system
+	 * @param capacity number of slots of the memo of position values
+	 */
+	public EndgameSolver(PokerSquaresPointSystem system, int capacity) {
+		board = new LineBoard(system);
+		memo = new Memo(capacity);
+	}
+
+	/**
+	 * Forget the positions solved so far (e.g. for a new game).
+	 */
+	public void clear() {
+		memo.clear();
+	}
+
+	/**
+	 * Return the empty cell in which placing the given card maximizes the expected final score.
+	 * @param position board holding the current position (only read)
+	 * @param cardId card to place
+	 * @param undealtCards ids of the cards not dealt yet, not including cardId (only read)
+	 * @param numUndealtCards number of valid entries in undealtCards
+	 * @return the best cell (the first of equally good ones)
+	 */
+	public int solve(LineBoard position, int cardId, int[] undealtCards, int numUndealtCards) {
+		board.copyFrom(position);
+		System.arraycopy(undealtCards, 0, undealt, 0, numUndealtCards);
+		numUndealt = numUndealtCards;
+		nodes = 0;
+		int emptyMask = PositionKey.emptyMask(board);
+		suits.setBoard(board);
+		suits.place(cardId);
+		int bestCell = -1;
+		value = Double.NEGATIVE_INFINITY;
+		for (int cell = 0; cell < NUM_POS; cell++) {
+			if ((emptyMask & 1 << cell) != 0) {
+				board.make(cell, cardId);
+				double cellValue = chance(emptyMask & ~(1 << cell));
+				board.undo();
+				if (cellValue > value) {
+					value = cellValue;
+					bestCell = cell;
+				}
+			}
+		}
+		return bestCell;
+	}
+
+	/**
+	 * Return the expected final score of the board's position before the next draw.
+	 * @param emptyMask bit mask of the empty cells
+	 */
+	private double chance(int emptyMask) {
+		nodes++;
+		if (emptyMask == 0)
+			return board.getScore();
+		if ((emptyMask & (emptyMask - 1)) == 0) { // last empty cell: average the placements of the undealt cards
+			int cell = Integer.numberOfTrailingZeros(emptyMask);
+			long sum = 0;
+			int count = 0;
+			for (int i = 0; i < numUndealt; i++) {
+				if (!drawn[undealt[i]]) {
+					sum += board.getDelta(cell, undealt[i]);
+					count++;
+				}
+			}
+			return board.getScore() + (double) sum / count;
+		}
+		long key = positionKey.get(board, emptyMask, suits);
+		long[] form = canonicalBoard();
+		double chanceValue = memo.get(key, form);
+		if (Double.isNaN(chanceValue)) {
+			chanceValue = Integer.bitCount(emptyMask) == 2 ? chanceTwo(emptyMask) : chanceMany(emptyMask);
+			memo.put(key, canonicalBoard(), chanceValue); // (the recursion reused form; not stored if the memo is full)
+		}
+		return chanceValue;
+	}
+
+	/**
+	 * Return the board in canonical form: the canonical card of every cell (see SuitIsomorphism.canonicalCard), six
+	 * bits per cell, in the solver's form buffer.
+	 */
+	private long[] canonicalBoard() {
+		for (int i = 0; i < Memo.FORM_LONGS; i++) {
+			long bits = 0;
+			int first = i * Memo.CELLS_PER_LONG;
+			for (int cell = Math.min(NUM_POS, first + Memo.CELLS_PER_LONG) - 1; cell >= first; cell--) {
+				int cardId = board.getCardId(cell);
+				bits = bits << 6 | (cardId == LineBoard.EMPTY ? Memo.EMPTY_CODE : suits.canonicalCard(cardId));
+			}
+			form[i] = bits;
+		}
+		return form;
+	}
+
+	/**
+	 * Expected final score before the next draw, with three or more empty cells: recurse on every card and cell.
+	 */
+	private double chanceMany(int emptyMask) {
+		double sum = 0;
+		int count = 0;
+		for (int i = 0; i < numUndealt; i++) {
+			int cardId = undealt[i];
+			if (drawn[cardId])
+				continue;
+			drawn[cardId] = true;
+			suits.place(cardId);
+			double best = Double.NEGATIVE_INFINITY;
+			for (int cells = emptyMask; cells != 0; cells &= cells - 1) {
+				int cell = Integer.numberOfTrailingZeros(cells);
+				board.make(cell, cardId);
+				best = Math.max(best, chance(emptyMask & ~(1 << cell)));
+				board.undo();
+			}
+			suits.remove(cardId);
+			drawn[cardId] = false;
+			sum += best;
+			count++;
+		}
+		return sum / count;
+	}
+
+	/**
+	 * Expected final score before the next draw, with two empty cells a and b. The score change of each undealt
+	 * card in each cell is computed once; if a and b share no line, placing a card in one cell does not change the
+	 * deltas of the other, so the expected last delta after a card is the sum of the other deltas minus its own,
+	 * over the cards left. Otherwise the last cell is averaged after the placement.
+	 */
+	private double chanceTwo(int emptyMask) {
+		int a = Integer.numberOfTrailingZeros(emptyMask);
+		int b = Integer.numberOfTrailingZeros(emptyMask & (emptyMask - 1));
+		int score = board.getScore();
+		if (a / SIZE == b / SIZE || a % SIZE == b % SIZE) { // same line: the first card changes the last deltas
+			double sum = 0;
+			int count = 0;
+			for (int i = 0; i < numUndealt; i++) {
+				int cardId = undealt[i];
+				if (drawn[cardId])
+					continue;
+				drawn[cardId] = true;
+				board.make(a, cardId);
+				double valueA = chance(1 << b);
+				board.undo();
+				board.make(b, cardId);
+				double valueB = chance(1 << a);
+				board.undo();
+				drawn[cardId] = false;
+				sum += Math.max(valueA, valueB);
+				count++;
+			}
+			return sum / count;
+		}
+		int[] deltasA = this.deltasA, deltasB = this.deltasB;
+		int count = 0;
+		long sumA = 0, sumB = 0;
+		for (int i = 0; i < numUndealt; i++) {
+			int cardId = undealt[i];
+			if (drawn[cardId])
+				continue;
+			sumA += deltasA[count] = board.getDelta(a, cardId);
+			sumB += deltasB[count] = board.getDelta(b, cardId);
+			count++;
+		}
+		nodes += 2 * count;
+		double sum = 0;
+		for (int i = 0; i < count; i++)
+			sum += Math.max(deltasA[i] + (double) (sumB - deltasB[i]) / (count - 1),
+					deltasB[i] + (double) (sumA - deltasA[i]) / (count - 1));
+		return score + sum / count;
+	}
+
+	/**
+	 * @return expected final score of the best cell of the last solve
+	 */
+	public double getValue() {
+		return value;
+	}
+
+	/**
+	 * @return number of chance nodes evaluated by the last solve
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Plain expectimax without memoization, to check the solver.
+	 */
+	private static double expectimax(LineBoard board, int cardId, int[] undealt, int numUndealt, boolean[] drawn) {
+		double best = Double.NEGATIVE_INFINITY;
+		for (int cell = 0; cell < NUM_POS; cell++) {
+			if (!board.isEmpty(cell))
+				continue;
+			board.make(cell, cardId);
+			double cellValue;
+			if (board.getNumCards() == NUM_POS)
+				cellValue = board.getScore();
+			else {
+				double sum = 0;
+				int count = 0;
+				for (int i = 0; i < numUndealt; i++) {
+					if (!drawn[undealt[i]]) {
+						drawn[undealt[i]] = true;
+						sum += expectimax(board, undealt[i], undealt, numUndealt, drawn);
+						drawn[undealt[i]] = false;
+						count++;
+					}
+				}
+				cellValue = sum / count;
+			}
+			board.undo();
+			best = Math.max(best, cellValue);
+		}
+		return best;
+	}
+
+	/**
+	 * Check the solver against plain expectimax on random positions with 2 to 4 empty cells, then time it with
+	 * 1 to 5 empty cells.
+	 * @param args (not used)
+	 */
+	public static void main(String[] args) {
+		PokerSquaresPointSystem system = PokerSquaresPointSystem.getAmericanPointSystem();
+		EndgameSolver solver = new EndgameSolver(system, 1 << 20);
+		SplittableRandom random = new SplittableRandom(1);
+		LineBoard board = new LineBoard(system);
+		int[] deck = new int[Card.NUM_CARDS];
+		int[] undealt = new int[Card.NUM_CARDS];
+		for (int numEmpty = 1; numEmpty <= 5; numEmpty++) {
+			int numPositions = 200;
+			long maxNanos = 0, totalNanos = 0, totalNodes = 0;
+			for (int p = 0; p < numPositions; p++) {
+				/* a random position with numEmpty empty cells, and the next card */
+				for (int i = 0; i < Card.NUM_CARDS; i++)
+					deck[i] = i;
+				for (int i = 0; i < Card.NUM_CARDS - 1; i++) {
+					int j = i + random.nextInt(Card.NUM_CARDS - i);
+					int tmp = deck[i];
+					deck[i] = deck[j];
+					deck[j] = tmp;
+				}
+				int[] cells = new int[NUM_POS];
+				for (int i = 0; i < NUM_POS; i++)
+					cells[i] = i;
+				board.clear();
+				for (int i = 0; i < NUM_POS - numEmpty; i++) {
+					int j = i + random.nextInt(NUM_POS - i);
+					int cell = cells[j];
+					cells[j] = cells[i];
+					board.make(cell, deck[i]);
+				}
+				int cardId = deck[NUM_POS - numEmpty];
+				int numUndealt = 0;
+				for (int i = NUM_POS - numEmpty + 1; i < Card.NUM_CARDS; i++)
+					undealt[numUndealt++] = deck[i];
+
+				solver.clear(); // (positions are random: no reuse between solves)
+				long start = System.nanoTime();
+				int cell = solver.solve(board, cardId, undealt, numUndealt);
+				long nanos = System.nanoTime() - start;
+				if (p > 0) { // (the first solve of a size warms up)
+					maxNanos = Math.max(maxNanos, nanos);
+					totalNanos += nanos;
+				}
+				totalNodes += solver.getNodes();
+				if (!board.isEmpty(cell))
+					throw new IllegalStateException("Solver chose a full cell");
+				if (numEmpty <= 4 && p < 20) {
+					double expected = expectimax(board, cardId, undealt, numUndealt, new boolean[Card.NUM_CARDS]);
+					if (Math.abs(expected - solver.getValue()) > 1e-9)
+						throw new IllegalStateException("Solver value " + solver.getValue() + ", expectimax " + expected);
+				}
+			}
+			System.out.printf("%d empty cells: %8.3f ms mean, %8.3f ms max, %9d chance nodes mean%s\n", numEmpty,
+					totalNanos / 1e6 / (numPositions - 1), maxNanos / 1e6, totalNodes / numPositions,
+					numEmpty <= 4 ? " (values match plain expectimax)" : "");
+		}
+	}
+}
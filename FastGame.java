@@ -0,0 +1,166 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * FastGame - a headless Poker Squares engine for batch evaluation of many games.
+ *
+ * It follows the rules of PokerSquares.play (same deal for the same seed, same forfeit score for running out of
+ * time, illegal plays and exceptions), but never prints, deals from a primitive array of card ids shuffled in place,
+ * reuses its grid and charges each getPlay call to a pluggable GameClock. Apart from what the player itself
+ * allocates, a game allocates nothing, so cheap players run at hundreds of thousands of games per second.
+ * Games can be recorded with a GameRecordWriter (see setGameRecordWriter).
+ * An engine is used by one thread only.
+ */
+public class FastGame {
+
+	private static final int SIZE = PokerSquares.SIZE;
+	private static final int NUM_POS = SIZE * SIZE;
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	private final PokerSquaresPlayer player; // player of every game
+	private final PokerSquaresPointSystem system; // point system of every game
+	private final GameClock clock; // clock getPlay calls are charged to
+	public long gameMillis = PokerSquares.GAME_MILLIS; // maximum milliseconds per game
+	private final int minPoints; // forfeit score: 10 times the minimum hand score
+	private final Card[][] grid = new Card[SIZE][SIZE]; // current game grid
+	private final int[] deck = new int[Card.NUM_CARDS]; // card ids, dealt from the end like PokerSquares' Stack
+	private final Random random = new Random(); // deal shuffler, reseeded per game
+	private final int systemId; // point system id for game records
+	private final GameRecord record = new GameRecord(); // record of the current game
+	private GameRecordWriter recordWriter; // writer of the game records, or null
+
+	/**
+	 * Create an engine and give the player the point system (synchronously, without time limit).
+	 * @param player Poker Squares player
+	 * @param system point system
+	 * @param clock clock to charge getPlay calls to
+	 */
+	public FastGame(PokerSquaresPlayer player, PokerSquaresPointSystem system, GameClock clock) {
+		this.player = player;
+		this.system = system;
+		this.clock = clock;
+		int min = Integer.MAX_VALUE;
+		for (int points : system.getScoreTable())
+			min = Math.min(min, points);
+		minPoints = min * 10;
+		systemId = GameRecord.systemId(system);
+		player.setPointSystem(system, PokerSquares.POINT_SYSTEM_MILLIS);
+	}
+
+	/**
+	 * Record every game played from now on with the given writer.
+	 * @param recordWriter game record writer, or null to stop recording
+	 */
+	public void setGameRecordWriter(GameRecordWriter recordWriter) {
+		this.recordWriter = recordWriter;
+	}
+
+	/**
+	 * Play one game with the deal of the given seed (the same deal PokerSquares plays for that seed), and record it
+	 * if there is a game record writer.
+	 * @param seed deal seed
+	 * @return final game score
+	 * @throws UncheckedIOException if the game cannot be recorded
+	 */
+	public int play(long seed) {
+		record.start(systemId, seed);
+		int score = playGame(seed);
+		if (recordWriter != null) {
+			record.score = score;
+			try {
+				recordWriter.write(record, player);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Play one game with the deal of the given seed, keeping record of the plays.
+	 * @param seed deal seed
+	 * @return final game score
+	 */
+	private int playGame(long seed) {
+		try {
+			player.init();
+
+			// shuffle exactly as Collections.shuffle does the Stack of all cards
+			random.setSeed(seed);
+			for (int i = 0; i < Card.NUM_CARDS; i++)
+				deck[i] = i;
+			for (int i = Card.NUM_CARDS; i > 1; i--) {
+				int j = random.nextInt(i);
+				int tmp = deck[i - 1];
+				deck[i - 1] = deck[j];
+				deck[j] = tmp;
+			}
+
+			for (int row = 0; row < SIZE; row++)
+				for (int col = 0; col < SIZE; col++)
+					grid[row][col] = null;
+
+			long nanosRemaining = gameMillis * NANOS_PER_MILLI;
+			for (int cardsPlaced = 0; cardsPlaced < NUM_POS; cardsPlaced++) {
+				Card card = Card.getCard(deck[Card.NUM_CARDS - 1 - cardsPlaced]); // pop
+				long startTime = clock.nanoTime();
+				int[] play = player.getPlay(card, nanosRemaining / NANOS_PER_MILLI);
+				nanosRemaining -= clock.nanoTime() - startTime;
+				if (nanosRemaining < 0) // times out
+					return minPoints;
+				if (play.length != 2 || play[0] < 0 || play[0] >= SIZE || play[1] < 0 || play[1] >= SIZE || grid[play[0]][play[1]] != null) // illegal play
+					return minPoints;
+				grid[play[0]][play[1]] = card;
+				record.setPlay(cardsPlaced, card.getCardId(), play[0] * SIZE + play[1]);
+			}
+			int score = system.getScore(grid);
+			record.setResult(grid, score);
+			return score;
+		}
+		catch (Exception e) {
+			return minPoints;
+		}
+	}
+
+	/**
+	 * Play games with successive seeds (as PokerSquares.playSequence does) and return their scores.
+	 * @param scores array to fill with the game scores (its length is the number of games)
+	 * @param startSeed seed of the first game
+	 * @return scores
+	 */
+	public int[] playSequence(int[] scores, long startSeed) {
+		for (int i = 0; i < scores.length; i++)
+			scores[i] = play(startSeed + i);
+		return scores;
+	}
+
+	/**
+	 * Check that FastGame scores a deterministic player like PokerSquares, then measure games per second.
+	 * @param args (not used)
+	 */
+	public static void main(String[] args) {
+		PokerSquaresPointSystem system = PokerSquaresPointSystem.getAmericanPointSystem();
+		int[] expected = new PokerSquares(new FlushPlayer(), system).playSequence(10, 0, false);
+		int[] scores = new FastGame(new FlushPlayer(), system, GameClock.VIRTUAL).playSequence(new int[10], 0);
+		if (!Arrays.equals(expected, scores))
+			throw new IllegalStateException("FastGame and PokerSquares disagree: " + Arrays.toString(scores));
+		System.out.println("FastGame matches PokerSquares on 10 games");
+
+		PokerSquaresPlayer[] players = {new RandomPlayer(), new FlushPlayer()};
+		for (PokerSquaresPlayer player : players) {
+			FastGame game = new FastGame(player, system, GameClock.VIRTUAL);
+			int[] batch = new int[100000];
+			for (int round = 0; round < 3; round++) { // the first rounds warm up the JIT
+				long start = System.nanoTime();
+				game.playSequence(batch, round * batch.length);
+				double seconds = (System.nanoTime() - start) / 1e9;
+				long total = 0;
+				for (int score : batch)
+					total += score;
+				System.out.printf("%s: %.0f games/s, mean score %.3f\n", player.getName(), batch.length / seconds, (double) total / batch.length);
+			}
+		}
+	}
+}
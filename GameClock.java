@@ -0,0 +1,35 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * GameClock - the clock a headless game (FastGame) charges each getPlay call to.
+ *
+ * REAL is wall-clock time, as in PokerSquares.play. THREAD_CPU is the CPU time of the thread calling getPlay, so
+ * games sharing a machine do not charge each other's work to one another (work a player does on other threads is not
+ * counted). VIRTUAL never advances: the game measures nothing and every play sees the whole game time, which is
+ * what deterministic, fast players need for reproducible batch evaluation.
+ */
+public interface GameClock {
+
+	/** Wall-clock time (System.nanoTime()). */
+	GameClock REAL = System::nanoTime;
+
+	/** CPU time of the current thread. */
+	GameClock THREAD_CPU = new GameClock() {
+		private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+		@Override
+		public long nanoTime() {
+			return threads.getCurrentThreadCpuTime();
+		}
+	};
+
+	/** A clock that never advances. */
+	GameClock VIRTUAL = () -> 0L;
+
+	/**
+	 * Return the current time of this clock in nanoseconds (only differences are meaningful).
+	 * @return current time in nanoseconds
+	 */
+	long nanoTime();
+}
@@ -0,0 +1,171 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * GameRecord - one played game in the fixed-width binary record format of GameRecordWriter and GameRecordReader.
+ *
+ * A record holds the point system id, the deal seed, the final score, the card id dealt at each play, the cell
+ * (row-major index) it was placed in, the Poker hand ids of rows 0 through 4 followed by columns 0 through 4, and
+ * optionally the search statistics of each play (see SearchStats). On disk, it takes RECORD_SIZE bytes, plus
+ * STATS_SIZE bytes when the file has statistics:
+ *
+ *   int systemId, long seed, int score, byte[25] cards, byte[25] cells, byte[10] handIds
+ *   [per play: int micros, int trials, int rollouts, int nodes, byte maxDepth]
+ *
+ * Cards and cells of plays that were never made (a forfeit game) are -1, and so are the hand ids of an
+ * unfinished grid. Counters above Integer.MAX_VALUE are stored as Integer.MAX_VALUE.
+ * A record object is reused from game to game (and from record to record when reading), so it allocates nothing.
+ */
+public class GameRecord {
+
+	public static final int NUM_POS = PokerSquares.SIZE * PokerSquares.SIZE;
+	public static final int NUM_LINES = 2 * PokerSquares.SIZE;
+	public static final int RECORD_SIZE = 4 + 8 + 4 + NUM_POS + NUM_POS + NUM_LINES; // bytes without statistics
+	public static final int STATS_SIZE = NUM_POS * (4 * 4 + 1); // bytes of the per-play statistics
+
+	public int systemId; // point system id (see systemId)
+	public long seed; // deal seed
+	public int score; // final score (the forfeit score for a time-out, an illegal play or an exception)
+	public final int[] cards = new int[NUM_POS]; // card id dealt at each play, or -1
+	public final int[] cells = new int[NUM_POS]; // cell each card was placed in, or -1
+	public final int[] handIds = new int[NUM_LINES]; // Poker hand id of rows 0 through 4 then columns 0 through 4, or -1
+	public boolean hasStats; // whether the per-play statistics below are valid (they are written as zeros otherwise)
+	public final int[] playMicros = new int[NUM_POS]; // search time of each play in microseconds
+	public final int[] playTrials = new int[NUM_POS]; // trials of each play
+	public final int[] playRollouts = new int[NUM_POS]; // rollouts of each play
+	public final int[] playNodes = new int[NUM_POS]; // tree nodes created by each play
+	public final int[] playMaxDepth = new int[NUM_POS]; // maximum depth of a rollout start of each play
+
+	/**
+	 * Return the id of a point system: a hash of its score table, the same in every run.
+	 * @param system point system
+	 * @return point system id
+	 */
+	public static int systemId(PokerSquaresPointSystem system) {
+		return Arrays.hashCode(system.getScoreTable());
+	}
+
+	/**
+	 * Start the record of a new game: no plays, no hands and no statistics yet.
+	 * @param systemId point system id
+	 * @param seed deal seed
+	 */
+	public void start(int systemId, long seed) {
+		this.systemId = systemId;
+		this.seed = seed;
+		score = 0;
+		Arrays.fill(cards, -1);
+		Arrays.fill(cells, -1);
+		Arrays.fill(handIds, -1);
+		hasStats = false;
+	}
+
+	/**
+	 * Record a play.
+	 * @param play play index (0 for the first card)
+	 * @param cardId card dealt
+	 * @param cell cell (row-major index) the card was placed in
+	 */
+	public void setPlay(int play, int cardId, int cell) {
+		cards[play] = cardId;
+		cells[play] = cell;
+	}
+
+	/**
+	 * Record the final score and the hand ids of a full grid.
+	 * @param grid full grid
+	 * @param score final score
+	 */
+	public void setResult(Card[][] grid, int score) {
+		this.score = score;
+		for (int i = 0; i < PokerSquares.SIZE; i++) {
+			handIds[i] = PokerHandTable.getRowHandId(grid, i);
+			handIds[PokerSquares.SIZE + i] = PokerHandTable.getColHandId(grid, i);
+		}
+	}
+
+	/**
+	 * Copy the per-play statistics of the game just played.
+	 * @param stats search statistics of the game
+	 */
+	public void setStats(SearchStats stats) {
+		for (int play = 0; play < NUM_POS; play++) {
+			boolean played = play < stats.getNumPlays();
+			playMicros[play] = played ? saturate(stats.getNanos(play) / 1000) : 0;
+			playTrials[play] = played ? saturate(stats.getTrials(play)) : 0;
+			playRollouts[play] = played ? saturate(stats.getRollouts(play)) : 0;
+			playNodes[play] = played ? saturate(stats.getNodes(play)) : 0;
+			playMaxDepth[play] = played ? stats.getMaxDepth(play) : 0;
+		}
+		hasStats = true;
+	}
+
+	private static int saturate(long value) {
+		return (int) Math.min(value, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Encode this record at the buffer's position.
+	 * @param buffer buffer with at least RECORD_SIZE (+ STATS_SIZE) bytes remaining
+	 * @param withStats whether to write the per-play statistics (zeros if this record has none)
+	 */
+	public void write(ByteBuffer buffer, boolean withStats) {
+		buffer.putInt(systemId);
+		buffer.putLong(seed);
+		buffer.putInt(score);
+		for (int play = 0; play < NUM_POS; play++)
+			buffer.put((byte) cards[play]);
+		for (int play = 0; play < NUM_POS; play++)
+			buffer.put((byte) cells[play]);
+		for (int line = 0; line < NUM_LINES; line++)
+			buffer.put((byte) handIds[line]);
+		if (withStats) {
+			for (int play = 0; play < NUM_POS; play++) {
+				buffer.putInt(hasStats ? playMicros[play] : 0);
+				buffer.putInt(hasStats ? playTrials[play] : 0);
+				buffer.putInt(hasStats ? playRollouts[play] : 0);
+				buffer.putInt(hasStats ? playNodes[play] : 0);
+				buffer.put((byte) (hasStats ? Math.min(playMaxDepth[play], Byte.MAX_VALUE) : 0));
+			}
+		}
+	}
+
+	/**
+	 * Decode a record from the buffer's position into this record.
+	 * @param buffer buffer with at least RECORD_SIZE (+ STATS_SIZE) bytes remaining
+	 * @param withStats whether the record has per-play statistics
+	 */
+	public void read(ByteBuffer buffer, boolean withStats) {
+		systemId = buffer.getInt();
+		seed = buffer.getLong();
+		score = buffer.getInt();
+		for (int play = 0; play < NUM_POS; play++)
+			cards[play] = buffer.get();
+		for (int play = 0; play < NUM_POS; play++)
+			cells[play] = buffer.get();
+		for (int line = 0; line < NUM_LINES; line++)
+			handIds[line] = buffer.get();
+		hasStats = withStats;
+		if (withStats) {
+			for (int play = 0; play < NUM_POS; play++) {
+				playMicros[play] = buffer.getInt();
+				playTrials[play] = buffer.getInt();
+				playRollouts[play] = buffer.getInt();
+				playNodes[play] = buffer.getInt();
+				playMaxDepth[play] = buffer.get();
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("system %08x, seed %d, score %d:", systemId, seed, score));
+		for (int play = 0; play < NUM_POS && cards[play] >= 0; play++)
+			sb.append(' ').append(Card.getCard(cards[play])).append('@').append(cells[play]);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,174 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * GameRecordReader - streams the GameRecords of a binary game-record file (see GameRecordWriter).
+ *
+ * Records are read sequentially through a fixed direct buffer and decoded into a GameRecord supplied by the caller,
+ * so a file of tens of millions of games is read in constant memory and without garbage. A partial record at the
+ * end of the file (one still being written) is not returned.
+ */
+public class GameRecordReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final FileChannel channel; // record file
+	private final ByteBuffer buffer; // bytes read but not decoded yet
+	private final boolean withStats; // whether records have per-play statistics
+	private final int recordSize; // bytes per record
+	private boolean endOfFile; // whether the channel has no more bytes
+
+	/**
+	 * Open a record file for reading.
+	 * @param file record file
+	 * @throws IOException if the file cannot be opened or is not a record file
+	 */
+	public GameRecordReader(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			withStats = readHeader(channel, file);
+		}
+		catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		recordSize = GameRecord.RECORD_SIZE + (withStats ? GameRecord.STATS_SIZE : 0);
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE / recordSize * recordSize);
+		buffer.flip(); // empty
+		channel.position(GameRecordWriter.HEADER_SIZE);
+	}
+
+	/**
+	 * Read and check the header of a record file.
+	 * @param channel channel of the file
+	 * @param file file (for error messages)
+	 * @return whether records have per-play statistics
+	 * @throws IOException if the file is not a record file of a known version
+	 */
+	static boolean readHeader(FileChannel channel, Path file) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(GameRecordWriter.HEADER_SIZE);
+		while (header.hasRemaining() && channel.read(header, header.position()) > 0)
+			;
+		header.flip();
+		if (header.remaining() < GameRecordWriter.HEADER_SIZE || header.getInt() != GameRecordWriter.MAGIC)
+			throw new IOException(file + " is not a game record file");
+		short version = header.getShort();
+		if (version != GameRecordWriter.VERSION)
+			throw new IOException(file + " has unknown game record version " + version);
+		return (header.getShort() & GameRecordWriter.FLAG_STATS) != 0;
+	}
+
+	/**
+	 * Decode the next record into the given record.
+	 * @param record record to fill
+	 * @return whether there was a next record
+	 * @throws IOException if reading fails
+	 */
+	public boolean next(GameRecord record) throws IOException {
+		if (buffer.remaining() < recordSize) {
+			if (endOfFile)
+				return false;
+			buffer.compact();
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					endOfFile = true;
+					break;
+				}
+			}
+			buffer.flip();
+			if (buffer.remaining() < recordSize)
+				return false;
+		}
+		record.read(buffer, withStats);
+		return true;
+	}
+
+	/**
+	 * @return whether records have per-play statistics
+	 */
+	public boolean hasStats() {
+		return withStats;
+	}
+
+	/**
+	 * @return number of whole records in the file
+	 * @throws IOException if the file size cannot be read
+	 */
+	public long getNumRecords() throws IOException {
+		return (channel.size() - GameRecordWriter.HEADER_SIZE) / recordSize;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Summarize the record file given as argument (games and mean score per point system). Without argument,
+	 * record 100000 FlushPlayer games with FastGame, read them back and check them against a replay of the deals.
+	 * @param args record file (optional)
+	 * @throws IOException if a file cannot be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		GameRecord record = new GameRecord();
+		if (args.length > 0) {
+			Map<Integer, long[]> totals = new HashMap<Integer, long[]>(); // system id -> {games, total score}
+			try (GameRecordReader reader = new GameRecordReader(Paths.get(args[0]))) {
+				while (reader.next(record)) {
+					long[] total = totals.computeIfAbsent(record.systemId, id -> new long[2]);
+					total[0]++;
+					total[1] += record.score;
+				}
+			}
+			for (Map.Entry<Integer, long[]> entry : totals.entrySet())
+				System.out.printf("system %08x: %d games, mean score %f\n", entry.getKey(), entry.getValue()[0],
+						(double) entry.getValue()[1] / entry.getValue()[0]);
+			return;
+		}
+
+		int numGames = 100000;
+		PokerSquaresPointSystem system = PokerSquaresPointSystem.getAmericanPointSystem();
+		Path file = Files.createTempFile("games", ".psqr");
+		try {
+			int[] scores = new int[numGames];
+			long start = System.nanoTime();
+			try (GameRecordWriter writer = new GameRecordWriter(file, false)) {
+				FastGame game = new FastGame(new FlushPlayer(), system, GameClock.VIRTUAL);
+				game.setGameRecordWriter(writer);
+				game.playSequence(scores, 0);
+			}
+			long written = System.nanoTime();
+			long numRecords = 0;
+			try (GameRecordReader reader = new GameRecordReader(file)) {
+				Card[][] grid = new Card[PokerSquares.SIZE][PokerSquares.SIZE];
+				while (reader.next(record)) {
+					for (int play = 0; play < GameRecord.NUM_POS; play++)
+						grid[record.cells[play] / PokerSquares.SIZE][record.cells[play] % PokerSquares.SIZE] = Card.getCard(record.cards[play]);
+					if (record.seed != numRecords || record.score != scores[(int) numRecords] || system.getScore(grid) != record.score)
+						throw new IllegalStateException("Record " + numRecords + " does not match its game: " + record);
+					numRecords++;
+				}
+			}
+			long read = System.nanoTime();
+			if (numRecords != numGames)
+				throw new IllegalStateException(numRecords + " records read, " + numGames + " written");
+			System.out.printf("%d games (%d bytes) recorded in %.0f ms (with play), read back and checked in %.0f ms\n",
+					numGames, Files.size(file), (written - start) / 1e6, (read - written) / 1e6);
+			System.out.println("Last game: " + record);
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+}
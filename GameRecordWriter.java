@@ -0,0 +1,131 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * GameRecordWriter - appends GameRecords to a binary game-record file.
+ *
+ * A file starts with an 8-byte header (magic number, format version, flags) followed by fixed-width records (see
+ * GameRecord), so the n-th record is at a known offset and a file can be read back with GameRecordReader while it
+ * grows. Records are encoded into a direct buffer and written to the file channel when the buffer is full, on
+ * flush and on close. Opening an existing file appends to it; its header must agree on whether records have
+ * statistics, and a partial record left at its end (e.g. by a crash) is cut off.
+ * Writing is synchronized, so the games of a parallel tournament can share one writer.
+ */
+public class GameRecordWriter implements Closeable {
+
+	public static final int MAGIC = 0x50535152; // "PSQR"
+	public static final short VERSION = 1;
+	public static final short FLAG_STATS = 1; // records have per-play statistics
+	public static final int HEADER_SIZE = 8;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel; // record file, positioned at its end
+	private final ByteBuffer buffer; // encoded records not written yet
+	private final boolean withStats; // whether records have per-play statistics
+	private final int recordSize; // bytes per record
+	private long numRecords; // records in the file, including those still buffered
+
+	/**
+	 * Open a record file for appending, creating it if needed.
+	 * @param file record file
+	 * @param withStats whether records have per-play statistics (must agree with an existing file)
+	 * @throws IOException if the file cannot be opened or is not a record file of that kind
+	 */
+	public GameRecordWriter(Path file, boolean withStats) throws IOException {
+		this.withStats = withStats;
+		recordSize = GameRecord.RECORD_SIZE + (withStats ? GameRecord.STATS_SIZE : 0);
+		buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, recordSize));
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if (channel.size() == 0) {
+				buffer.putInt(MAGIC).putShort(VERSION).putShort(withStats ? FLAG_STATS : 0);
+			}
+			else {
+				boolean fileStats = GameRecordReader.readHeader(channel, file);
+				if (fileStats != withStats)
+					throw new IOException(file + (fileStats ? " has" : " has no") + " search statistics");
+				numRecords = (channel.size() - HEADER_SIZE) / recordSize;
+				channel.truncate(HEADER_SIZE + numRecords * recordSize);
+			}
+			channel.position(channel.size());
+		}
+		catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Append a record.
+	 * @param record game record (its statistics are written as zeros if it has none)
+	 * @throws IOException if writing the buffer to the file fails
+	 */
+	public synchronized void write(GameRecord record) throws IOException {
+		if (buffer.remaining() < recordSize)
+			writeBuffer();
+		record.write(buffer, withStats);
+		numRecords++;
+	}
+
+	/**
+	 * Append the record of a game just played by the given player, with the player's search statistics if records
+	 * have statistics and the player reports them (see SearchStatsReporter).
+	 * @param record game record
+	 * @param player player of the game
+	 * @throws IOException if writing the buffer to the file fails
+	 */
+	public void write(GameRecord record, PokerSquaresPlayer player) throws IOException {
+		if (withStats && player instanceof SearchStatsReporter) {
+			SearchStats stats = ((SearchStatsReporter) player).getSearchStats();
+			if (stats != null)
+				record.setStats(stats);
+		}
+		write(record);
+	}
+
+	/**
+	 * Write the buffered records to the file.
+	 * @throws IOException if writing fails
+	 */
+	public synchronized void flush() throws IOException {
+		writeBuffer();
+	}
+
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * @return whether records have per-play statistics
+	 */
+	public boolean hasStats() {
+		return withStats;
+	}
+
+	/**
+	 * @return number of records in the file, including those appended by this writer
+	 */
+	public synchronized long getNumRecords() {
+		return numRecords;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			writeBuffer();
+		}
+		finally {
+			channel.close();
+		}
+	}
+}
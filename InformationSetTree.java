@@ -0,0 +1,249 @@
+import java.util.SplittableRandom;
+
+/*****
+ * Information-set Monte Carlo tree search (single-observer ISMCTS) statistics for a whole game.
+ *
+ * Every trial samples a new determinization (deal) of the unknown cards, but node statistics are keyed by the
+ * observable state, i.e. the cards on the board and where they are, rather than by a path through a tree that
+ * belongs to one deal. Nodes are the entries of a TranspositionTable keyed by PositionKey, so statistics are kept
+ * across deals, across plays (the tree needs no re-rooting), across move orders that lead to the same board and
+ * across boards equal up to row/column permutation, transpose and suit relabeling. Symmetric placements of a card thus share one
+ * child entry, which is considered (and counted available) once per visit of its parent.
+ *
+ * Which children of a state exist depends on the deal (a child places the deal's next card), so each child also
+ * counts how often it was available when its parent was visited, and UCB uses that availability count in place
+ * of the parent's visit count. A trial adds at most one node: an untried available child, chosen at random.
+ * A tree is used by one thread only.
+ */
+
+public class InformationSetTree {
+    private final TranspositionTable table; /* node statistics */
+    private final PositionKey positionKey = new PositionKey(); /* keys of the children of a position */
+    private final SuitIsomorphism suits = new SuitIsomorphism(); /* suit state of the cards on the board during a trial */
+    private final int[] untried = new int[LineBoard.NUM_POS]; /* scratch list of untried cells */
+    private final long[] untriedKeys = new long[LineBoard.NUM_POS]; /* position keys of the untried cells */
+    private final int[] children = new int[LineBoard.NUM_POS]; /* scratch list of the entries of the children of a node */
+    private final int[] path = new int[LineBoard.NUM_POS]; /* scratch list of the entries of a trial */
+
+    /**
+     * Create a tree whose statistics live in the given table.
+     * @param table transposition table (cleared by its owner, e.g. for a new game)
+     */
+    public InformationSetTree(TranspositionTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Return whether an entry is not among the first given children (symmetric cells lead to the same entry).
+     */
+    private boolean isNewChild(int slot, int numChildren) {
+        for (int i = 0; i < numChildren; i++) {
+            if (children[i] == slot) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Do one trial from the position held by the context's board, for its kernel's current deal (whose first card
+     * is the card to play). The board is restored before returning.
+     * @param context search context: parameters, board holding the current position and kernel holding the deal
+     * @return depth of the position rolled out (number of moves from the root)
+     */
+    public int trial(SearchContext context) {
+        LineBoard board = context.board;
+        RolloutKernel kernel = context.kernel;
+        int startCards = board.getNumCards();
+        int emptyMask = PositionKey.emptyMask(board);
+        suits.setBoard(board);
+        int dealt = 0;
+        int pathLength = 0;
+        while (board.getNumCards() < LineBoard.NUM_POS) {
+            int card = kernel.getCard(dealt);
+            int bestCell = -1;
+            int bestSlot = -1;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            int numUntried = 0;
+            int numChildren = 0;
+            positionKey.setPosition(board, emptyMask, suits);
+            for (int cell = 0; cell < LineBoard.NUM_POS; cell++) {
+                if (!board.isEmpty(cell)) {
+                    continue;
+                }
+                long childKey = positionKey.getChild(cell, card);
+                int slot = table.find(childKey);
+                if (slot < 0) {
+                    untried[numUntried] = cell;
+                    untriedKeys[numUntried++] = childKey;
+                    continue;
+                }
+                if (!isNewChild(slot, numChildren)) {
+                    continue;
+                }
+                children[numChildren++] = slot;
+                table.addAvailability(slot);
+                double childVisits = table.getVisits(slot) + MCTreeNode.smallTieBreaker;
+                double uctValue = table.getTotalValue(slot) / childVisits +
+                context.selectionConstant * Math.sqrt(Math.log(table.getAvailability(slot)) / childVisits) +
+                context.random.nextDouble() * MCTreeNode.smallTieBreaker;
+                if (uctValue > bestValue) {
+                    bestCell = cell;
+                    bestSlot = slot;
+                    bestValue = uctValue;
+                }
+            }
+            if (numUntried > 0) {
+                /* expansion: add one untried child, then roll out from it */
+                int i = context.random.nextInt(numUntried);
+                int slot = table.insert(untriedKeys[i], board.getNumCards() + 1);
+                board.make(untried[i], card);
+                dealt++;
+                if (slot >= 0) {
+                    table.addAvailability(slot);
+                    path[pathLength++] = slot;
+                }
+                break;
+            }
+            board.make(bestCell, card);
+            emptyMask &= ~(1 << bestCell);
+            suits.place(card);
+            dealt++;
+            path[pathLength++] = bestSlot;
+        }
+
+        /* Do roll out, then update the stats of every entry on the path */
+        double backpropagationValue = context.rollOut(dealt);
+        for (int i = 0; i < pathLength; i++) {
+            table.update(path[i], backpropagationValue);
+        }
+
+        /* Take back the moves made on the way down */
+        while (board.getNumCards() > startCards) {
+            board.undo();
+        }
+        return dealt;
+    }
+
+    /**
+     * Return the empty cell whose placement of the given card has been visited most from the board's position
+     * (ties broken by total value, then by the first cell).
+     * @param board board holding the current position
+     * @param cardId card to play
+     * @return the chosen cell
+     */
+    public int bestCell(LineBoard board, int cardId) {
+        positionKey.get(board);
+        int bestCell = -1;
+        double bestVisits = -1;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int cell = 0; cell < LineBoard.NUM_POS; cell++) {
+            if (board.isEmpty(cell)) {
+                int slot = table.find(positionKey.getChild(cell, cardId));
+                double cellVisits = slot < 0 ? 0 : table.getVisits(slot);
+                double cellValue = slot < 0 ? 0 : table.getTotalValue(slot);
+                if (cellVisits > bestVisits || (cellVisits == bestVisits && cellValue > bestValue)) {
+                    bestCell = cell;
+                    bestVisits = cellVisits;
+                    bestValue = cellValue;
+                }
+            }
+        }
+        return bestCell;
+    }
+
+    /**
+     * Copy the visits of the placements of the given card from the board's position into visits, by cell. A cell
+     * whose placement reaches the same entry as an earlier cell (a symmetric placement) gets 0, so that each distinct
+     * placement is counted once.
+     * @param board board holding the current position
+     * @param cardId card to play
+     * @param visits visits by cell (row-major index), written for the empty cells only
+     */
+    public void getRootVisits(LineBoard board, int cardId, double[] visits) {
+        positionKey.get(board);
+        int numChildren = 0;
+        for (int cell = 0; cell < LineBoard.NUM_POS; cell++) {
+            if (board.isEmpty(cell)) {
+                int slot = table.find(positionKey.getChild(cell, cardId));
+                if (slot < 0 || !isNewChild(slot, numChildren)) {
+                    visits[cell] = 0;
+                    continue;
+                }
+                children[numChildren++] = slot;
+                visits[cell] = table.getVisits(slot);
+            }
+        }
+    }
+
+    /**
+     * Return the total visits of the distinct placements of a card from the board's position.
+     */
+    private static double sumRootVisits(InformationSetTree tree, LineBoard board, int cardId, double[] visits) {
+        tree.getRootVisits(board, cardId, visits);
+        double sum = 0;
+        for (int cell = 0; cell < LineBoard.NUM_POS; cell++) {
+            if (board.isEmpty(cell)) {
+                sum += visits[cell];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Play games with a table far too small for a whole game and check that, at every play, every trial reaches a
+     * child of the root: the entries the board has filled past, or that the search of a play does not meet, must make
+     * room for the expansions of the last plays.
+     * @param args (not used)
+     */
+    public static void main(String[] args) {
+        PokerSquaresPointSystem system = PokerSquaresPointSystem.getAmericanPointSystem();
+        TranspositionTable table = new TranspositionTable(1 << 10);
+        InformationSetTree tree = new InformationSetTree(table);
+        SplittableRandom random = new SplittableRandom(1);
+        LineBoard board = new LineBoard(system);
+        SearchContext context = new SearchContext(system, board, new RolloutKernel(random), null);
+        context.selectionConstant = 10;
+        context.numSimulationsPerRollout = 1;
+        int numGames = 3;
+        int trialsPerPlay = 500;
+        int[] deck = new int[Card.NUM_CARDS];
+        int[] undealt = new int[Card.NUM_CARDS];
+        double[] visits = new double[LineBoard.NUM_POS];
+        for (int game = 0; game < numGames; game++) {
+            for (int i = 0; i < Card.NUM_CARDS; i++) {
+                deck[i] = i;
+            }
+            for (int i = 0; i < Card.NUM_CARDS - 1; i++) {
+                int j = i + random.nextInt(Card.NUM_CARDS - i);
+                int tmp = deck[i];
+                deck[i] = deck[j];
+                deck[j] = tmp;
+            }
+            table.clear();
+            board.clear();
+            for (int play = 0; play < LineBoard.NUM_POS; play++) {
+                int card = deck[play];
+                int numUndealt = 0;
+                for (int i = play + 1; i < Card.NUM_CARDS; i++) {
+                    undealt[numUndealt++] = deck[i];
+                }
+                table.startPlay(board.getNumCards());
+                double rootVisits = -sumRootVisits(tree, board, card, visits); // (visits of earlier plays)
+                for (int trial = 0; trial < trialsPerPlay; trial++) {
+                    context.kernel.deal(card, undealt, numUndealt, LineBoard.NUM_POS - play);
+                    tree.trial(context);
+                }
+                rootVisits += sumRootVisits(tree, board, card, visits);
+                if (rootVisits != trialsPerPlay) {
+                    throw new IllegalStateException("Game " + game + ", play " + play + ": " + (int) rootVisits
+                            + " of " + trialsPerPlay + " trials reached a child of the root");
+                }
+                board.make(tree.bestCell(board, card), card);
+            }
+            System.out.println("Game " + game + ": score " + board.getScore() + ", " + table.getNumInserted()
+                    + " entries added to a table of " + table.size() + " slots in use");
+        }
+        System.out.println("Every trial of every play reached a child of the root");
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * LeafRollouts - leaf parallelization for MCTreeNode trials: a batch of rollouts from one expanded leaf, each with
+ * an independent permutation of the unknown cards, run on a ForkJoinPool. The trial backpropagates their sum once.
+ *
+ * Every rollout of a batch has its own preallocated board, kernel and random number generator, and its task object
+ * is reinitialized rather than reallocated, so a batch costs one fork/join per rollout and no garbage.
+ * Batches must be started by one thread at a time (the thread searching the tree).
+ */
+public class LeafRollouts {
+
+	private final ForkJoinPool pool; // worker threads for the rollouts of a batch
+	private final RolloutTask[] tasks; // one reusable task per rollout of a batch
+
+	/**
+	 * Rollout of one batch member on its own board and kernel.
+	 */
+	private static class RolloutTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final LineBoard board;
+		private final RolloutKernel kernel;
+		private LineBoard leafBoard; // board holding the leaf position
+		private RolloutKernel leafKernel; // kernel holding the trial's deal
+		private int dealt; // number of cards of the deal placed at the leaf
+		private int score; // result of the rollout
+
+		RolloutTask(PokerSquaresPointSystem system) {
+			board = new LineBoard(system);
+			kernel = new RolloutKernel(new SplittableRandom());
+		}
+
+		@Override
+		protected void compute() {
+			board.copyFrom(leafBoard);
+			kernel.redeal(leafKernel, dealt);
+			score = kernel.rollOut(board, dealt);
+		}
+	}
+
+	/**
+	 * Create a leaf rollout batcher.
+	 * @param system point system
+	 * @param batchSize number of rollouts per batch
+	 * @param numThreads number of worker threads
+	 */
+	public LeafRollouts(PokerSquaresPointSystem system, int batchSize, int numThreads) {
+		pool = new ForkJoinPool(numThreads, pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setDaemon(true); // never keep the game from exiting
+			return thread;
+		}, null, false);
+		tasks = new RolloutTask[batchSize];
+		for (int i = 0; i < batchSize; i++)
+			tasks[i] = new RolloutTask(system);
+	}
+
+	/**
+	 * Give every member of a batch its own stream split from the given generator. The i-th rollout of every batch
+	 * always runs on the i-th stream, whichever worker thread runs it, so a seeded search stays reproducible.
+	 * @param random generator to split the streams from
+	 */
+	public void setRandom(SplittableRandom random) {
+		for (RolloutTask task : tasks)
+			task.kernel.random = random.split();
+	}
+
+	/**
+	 * Set the placement policy of the rollouts.
+	 * @param policy rollout policy, or null for uniformly random placements
+	 */
+	public void setPolicy(RolloutPolicy policy) {
+		for (RolloutTask task : tasks)
+			task.kernel.policy = policy;
+	}
+
+	/**
+	 * Roll out the leaf held by the given board a batch of times in parallel, each time with an independent draw of
+	 * the cards of the kernel's deal from position dealt on.
+	 * @param board board holding the leaf position (only read)
+	 * @param kernel kernel holding the trial's deal (only read)
+	 * @param dealt number of cards of the deal placed at the leaf
+	 * @return sum of the rollout scores
+	 */
+	public double rollOut(LineBoard board, RolloutKernel kernel, int dealt) {
+		for (RolloutTask task : tasks) {
+			task.reinitialize();
+			task.leafBoard = board;
+			task.leafKernel = kernel;
+			task.dealt = dealt;
+			pool.execute(task);
+		}
+		double sum = 0;
+		for (RolloutTask task : tasks) {
+			task.join();
+			sum += task.score;
+		}
+		return sum;
+	}
+
+	/**
+	 * Stop the worker threads once they are idle. The batcher must not be used afterwards.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Return the number of rollouts per batch.
+	 * @return batch size
+	 */
+	public int getBatchSize() {
+		return tasks.length;
+	}
+}
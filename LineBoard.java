@@ -0,0 +1,223 @@
+/**
+ * LineBoard - a Poker Squares grid of card id numbers that keeps the LineState of every row and column and a
+ * running score, so that a search can make and undo placements in O(1) instead of rescoring the grid.
+ *
+ * Cells are row-major indices: cell (r, c) is r * SIZE + c. Empty cells hold EMPTY.
+ * Placements are undone in last-made, first-undone order.
+ */
+public class LineBoard {
+
+	public static final int SIZE = PokerSquares.SIZE; // number of rows/columns in square grid
+	public static final int NUM_POS = SIZE * SIZE; // number of positions in square grid
+	public static final int EMPTY = -1; // card id of an empty cell
+
+	private final int[] lineScores; // line scores indexed by LineState for the current point system
+	private final int[] cards = new int[NUM_POS]; // card id of each cell, or EMPTY
+	private final int[] rowStates = new int[SIZE]; // LineState of each row
+	private final int[] colStates = new int[SIZE]; // LineState of each column
+	private final int[] madeCells = new int[NUM_POS]; // cells in the order they were filled
+	private final int[] savedRowStates = new int[NUM_POS]; // row state before each placement
+	private final int[] savedColStates = new int[NUM_POS]; // column state before each placement
+	private int numCards = 0; // number of cards placed so far
+	private int score = 0; // current grid score
+
+	/**
+	 * Create an empty board scored with the given point system.
+	 * @param system point system
+	 */
+	public LineBoard(PokerSquaresPointSystem system) {
+		this.lineScores = system.getLineScores();
+		clear();
+	}
+
+	/**
+	 * Empty the board.
+	 */
+	public void clear() {
+		for (int i = 0; i < NUM_POS; i++)
+			cards[i] = EMPTY;
+		for (int i = 0; i < SIZE; i++)
+			rowStates[i] = colStates[i] = LineState.EMPTY;
+		numCards = 0;
+		score = lineScores[LineState.EMPTY] * 2 * SIZE;
+	}
+
+	/**
+	 * Empty the board and place all cards of the given grid.
+	 * @param grid grid with Card objects or null (for empty positions)
+	 */
+	public void setGrid(Card[][] grid) {
+		clear();
+		for (int row = 0; row < SIZE; row++)
+			for (int col = 0; col < SIZE; col++)
+				if (grid[row][col] != null)
+					make(row * SIZE + col, grid[row][col].getCardId());
+	}
+
+	/**
+	 * Make this board a copy of another board scored with the same point system.
+	 * @param other board to copy
+	 */
+	public void copyFrom(LineBoard other) {
+		System.arraycopy(other.cards, 0, cards, 0, NUM_POS);
+		System.arraycopy(other.rowStates, 0, rowStates, 0, SIZE);
+		System.arraycopy(other.colStates, 0, colStates, 0, SIZE);
+		System.arraycopy(other.madeCells, 0, madeCells, 0, other.numCards);
+		System.arraycopy(other.savedRowStates, 0, savedRowStates, 0, other.numCards);
+		System.arraycopy(other.savedColStates, 0, savedColStates, 0, other.numCards);
+		numCards = other.numCards;
+		score = other.score;
+	}
+
+	/**
+	 * Return the score change that placing the given card in the given empty cell would cause.
+	 * @param cell empty cell (row-major index)
+	 * @param cardId card identification number
+	 * @return score change of the placement
+	 */
+	public int getDelta(int cell, int cardId) {
+		int row = cell / SIZE;
+		int col = cell % SIZE;
+		return lineScores[LineState.place(rowStates[row], cardId)] - lineScores[rowStates[row]]
+				+ lineScores[LineState.place(colStates[col], cardId)] - lineScores[colStates[col]];
+	}
+
+	/**
+	 * Place the given card in the given empty cell.
+	 * @param cell empty cell (row-major index)
+	 * @param cardId card identification number
+	 * @return score change of the placement
+	 */
+	public int make(int cell, int cardId) {
+		int row = cell / SIZE;
+		int col = cell % SIZE;
+		int oldRow = rowStates[row];
+		int oldCol = colStates[col];
+		int newRow = LineState.place(oldRow, cardId);
+		int newCol = LineState.place(oldCol, cardId);
+		madeCells[numCards] = cell;
+		savedRowStates[numCards] = oldRow;
+		savedColStates[numCards] = oldCol;
+		numCards++;
+		cards[cell] = cardId;
+		rowStates[row] = newRow;
+		colStates[col] = newCol;
+		int delta = lineScores[newRow] - lineScores[oldRow] + lineScores[newCol] - lineScores[oldCol];
+		score += delta;
+		return delta;
+	}
+
+	/**
+	 * Remove the most recently placed card.
+	 * @return score change of the removal
+	 */
+	public int undo() {
+		numCards--;
+		int cell = madeCells[numCards];
+		int row = cell / SIZE;
+		int col = cell % SIZE;
+		int oldRow = savedRowStates[numCards];
+		int oldCol = savedColStates[numCards];
+		int delta = lineScores[oldRow] - lineScores[rowStates[row]] + lineScores[oldCol] - lineScores[colStates[col]];
+		cards[cell] = EMPTY;
+		rowStates[row] = oldRow;
+		colStates[col] = oldCol;
+		score += delta;
+		return delta;
+	}
+
+	/**
+	 * Return the current grid score.
+	 * @return current grid score
+	 */
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 * Return the number of cards placed.
+	 * @return number of cards placed
+	 */
+	public int getNumCards() {
+		return numCards;
+	}
+
+	/**
+	 * Return the card id in the given cell.
+	 * @param cell cell (row-major index)
+	 * @return card id, or EMPTY
+	 */
+	public int getCardId(int cell) {
+		return cards[cell];
+	}
+
+	/**
+	 * Return whether the given cell is empty.
+	 * @param cell cell (row-major index)
+	 * @return whether or not the cell is empty
+	 */
+	public boolean isEmpty(int cell) {
+		return cards[cell] == EMPTY;
+	}
+
+	/**
+	 * Return the LineState of the given row.
+	 * @param row row index
+	 * @return row line state
+	 */
+	public int getRowState(int row) {
+		return rowStates[row];
+	}
+
+	/**
+	 * Return the LineState of the given column.
+	 * @param col column index
+	 * @return column line state
+	 */
+	public int getColState(int col) {
+		return colStates[col];
+	}
+
+	/**
+	 * Check running scores against PokerSquaresPointSystem.getScore over random make/undo sequences.
+	 * @param args (not used)
+	 */
+	public static void main(String[] args) {
+		java.util.Random random = new java.util.Random(0);
+		PokerSquaresPointSystem[] systems = {PokerSquaresPointSystem.getBritishPointSystem(),
+				PokerSquaresPointSystem.getAmericanPointSystem(), PokerSquaresPointSystem.getRandomPointSystem()};
+		Card[] deck = Card.getAllCards();
+		for (PokerSquaresPointSystem system : systems) {
+			LineBoard board = new LineBoard(system);
+			Card[][] grid = new Card[SIZE][SIZE];
+			for (int game = 0; game < 10000; game++) {
+				java.util.Collections.shuffle(java.util.Arrays.asList(deck), random);
+				board.clear();
+				for (int row = 0; row < SIZE; row++)
+					java.util.Arrays.fill(grid[row], null);
+				int[] cells = new int[NUM_POS];
+				for (int i = 0; i < NUM_POS; i++)
+					cells[i] = i;
+				for (int i = 0; i < NUM_POS; i++) {
+					int j = i + random.nextInt(NUM_POS - i);
+					int cell = cells[j];
+					cells[j] = cells[i];
+					cells[i] = cell;
+					int expectedDelta = board.getDelta(cell, deck[i].getCardId());
+					if (board.make(cell, deck[i].getCardId()) != expectedDelta)
+						throw new IllegalStateException("make and getDelta disagree");
+					grid[cell / SIZE][cell % SIZE] = deck[i];
+					if (board.getScore() != system.getScore(grid))
+						throw new IllegalStateException("running score " + board.getScore() + " != " + system.getScore(grid));
+				}
+				for (int i = NUM_POS - 1; i >= NUM_POS / 2; i--) {
+					board.undo();
+					grid[cells[i] / SIZE][cells[i] % SIZE] = null;
+					if (board.getScore() != system.getScore(grid))
+						throw new IllegalStateException("running score after undo " + board.getScore() + " != " + system.getScore(grid));
+				}
+			}
+		}
+		System.out.println("Running scores OK");
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * LineState - compact int states for a partially filled Poker Squares line (row or column), with precomputed
+ * transitions for placing a card.
+ *
+ * A line state packs the rank multiset state of PokerHandTable with a suit situation:
+ *   state = rankState << SUIT_BITS | suitState
+ * where suitState is EMPTY_SUITS for an empty line, 1 + suit while all cards share that suit, or MIXED_SUITS.
+ * Placing a card is two table loads, and the hand classification and score of any state are one load each, so a
+ * search can keep a running score and obtain the score change of a placement in O(1).
+ * Mixed suits cannot be "unmixed" by removing a card without knowing the other suits, so removal is done by
+ * restoring a saved state (see LineBoard.undo()).
+ */
+public final class LineState {
+
+	public static final int EMPTY = 0; // state of an empty line
+	static final int SUIT_BITS = 3;
+	static final int SUIT_MASK = (1 << SUIT_BITS) - 1;
+	static final int EMPTY_SUITS = 0;
+	static final int MIXED_SUITS = Card.NUM_SUITS + 1;
+	public static final int NUM_STATES = PokerHandTable.NUM_RANK_STATES << SUIT_BITS;
+
+	private static final int NUM_RANKS = Card.NUM_RANKS;
+	private static final int[] CARD_RANK = new int[Card.NUM_CARDS]; // card id -> rank
+	private static final int[] CARD_SUIT = new int[Card.NUM_CARDS]; // card id -> suit
+	private static final int[] SUIT_NEXT = new int[(MIXED_SUITS + 1) * Card.NUM_SUITS]; // [suitState * NUM_SUITS + suit] -> suitState
+	private static final byte[] HAND_IDS = new byte[NUM_STATES]; // state -> Poker hand classification id number
+
+	static {
+		for (int cardId = 0; cardId < Card.NUM_CARDS; cardId++) {
+			CARD_RANK[cardId] = cardId % NUM_RANKS;
+			CARD_SUIT[cardId] = cardId / NUM_RANKS;
+		}
+		for (int suitState = 0; suitState <= MIXED_SUITS; suitState++)
+			for (int suit = 0; suit < Card.NUM_SUITS; suit++)
+				SUIT_NEXT[suitState * Card.NUM_SUITS + suit] = (suitState == EMPTY_SUITS || suitState == suit + 1) ? suit + 1 : MIXED_SUITS;
+		for (int rankState = 0; rankState < PokerHandTable.NUM_RANK_STATES; rankState++)
+			for (int suitState = 0; suitState <= SUIT_MASK; suitState++)
+				HAND_IDS[rankState << SUIT_BITS | suitState] = (byte) PokerHandTable.getHandId(rankState,
+						suitState != EMPTY_SUITS && suitState != MIXED_SUITS);
+	}
+
+	private LineState() {
+	}
+
+	/**
+	 * Return the state of a line after placing the given card in it.
+	 * @param state current line state (with fewer than 5 cards)
+	 * @param cardId card identification number
+	 * @return line state after placing the card
+	 */
+	public static int place(int state, int cardId) {
+		return PokerHandTable.RANK_NEXT[(state >>> SUIT_BITS) * NUM_RANKS + CARD_RANK[cardId]] << SUIT_BITS
+				| SUIT_NEXT[(state & SUIT_MASK) * Card.NUM_SUITS + CARD_SUIT[cardId]];
+	}
+
+	/**
+	 * Return the number of cards in a line state.
+	 * @param state line state
+	 * @return number of cards in the line
+	 */
+	public static int size(int state) {
+		return PokerHandTable.RANK_STATE_SIZE[state >>> SUIT_BITS];
+	}
+
+	/**
+	 * Return the Poker hand classification identification number of a line state.
+	 * @param state line state
+	 * @return Poker hand classification identification number
+	 */
+	public static int getHandId(int state) {
+		return HAND_IDS[state];
+	}
+
+	/**
+	 * Return a table of line scores indexed by line state for the given point system.
+	 * (Prefer PokerSquaresPointSystem.getLineScores(), which computes this once per point system.)
+	 * @param system point system
+	 * @return an array of line scores indexed by line state
+	 */
+	static int[] computeLineScores(PokerSquaresPointSystem system) {
+		int[] lineScores = new int[NUM_STATES];
+		for (int state = 0; state < NUM_STATES; state++)
+			lineScores[state] = system.getHandScore(HAND_IDS[state]);
+		return lineScores;
+	}
+}
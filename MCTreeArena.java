@@ -0,0 +1,229 @@
+/*****
+ * A Monte Carlo search tree stored as parallel primitive arrays (struct of arrays) instead of MCTreeNode objects.
+ * Node i has a parent index, the index of its first child (children are stored next to each other), a child count,
+ * its move (cell and card id) and its statistics (visits and total value). Nodes are referred to by index, and
+ * the arena is reset rather than reallocated for each search, so a search creates no garbage and traversal walks
+ * over a few contiguous arrays.
+ *
+ * The trial is the same as MCTreeNode.trial for a single-threaded search: select by UCT down to a leaf, expand it
+ * for the next card of the deal, roll out the best child and backpropagate. An arena is used by one thread only.
+ *
+ * Author: Zhangliang Ma, Micah Hanmin Wang
+ */
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class MCTreeArena {
+    public static final int ROOT = 0; /* index of the root node */
+    public static final int NONE = -1; /* parent of the root, and move of the root */
+
+    private int[] parent; /* parent index of each node */
+    private int[] firstChild; /* index of the first child of each node (children are contiguous) */
+    private int[] childCount; /* number of children of each node, 0 for a leaf */
+    private byte[] cell; /* row-major index of the cell each node's card was placed in */
+    private byte[] cardId; /* id of the card each node placed (when it was expanded) */
+    private double[] visits; /* number of visits of each node */
+    private double[] totalValue; /* sum of the values backpropagated through each node */
+    private int size; /* number of nodes in use */
+
+    /**
+     * Create an arena with room for the given number of nodes. It grows if a search needs more.
+     * @param capacity initial number of nodes
+     */
+    public MCTreeArena(int capacity) {
+        parent = new int[capacity];
+        firstChild = new int[capacity];
+        childCount = new int[capacity];
+        cell = new byte[capacity];
+        cardId = new byte[capacity];
+        visits = new double[capacity];
+        totalValue = new double[capacity];
+        reset();
+    }
+
+    /**
+     * Throw away all nodes except a new, unvisited root.
+     */
+    public void reset() {
+        size = 0;
+        newNode(NONE, NONE, NONE);
+    }
+
+    /**
+     * Append a node and return its index.
+     */
+    private int newNode(int parentIndex, int nodeCell, int nodeCardId) {
+        if (size == parent.length) {
+            grow();
+        }
+        int node = size++;
+        parent[node] = parentIndex;
+        firstChild[node] = NONE;
+        childCount[node] = 0;
+        cell[node] = (byte) nodeCell;
+        cardId[node] = (byte) nodeCardId;
+        visits[node] = 0;
+        totalValue[node] = 0;
+        return node;
+    }
+
+    /**
+     * Double the capacity of the arena (rare: only when a search outgrows it).
+     */
+    private void grow() {
+        int capacity = parent.length * 2;
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        childCount = Arrays.copyOf(childCount, capacity);
+        cell = Arrays.copyOf(cell, capacity);
+        cardId = Arrays.copyOf(cardId, capacity);
+        visits = Arrays.copyOf(visits, capacity);
+        totalValue = Arrays.copyOf(totalValue, capacity);
+    }
+
+    /**
+     * Step 1: Do one trial from the root for the kernel's current deal (see MCTreeNode.trial).
+     * The context's board must hold the root position; it is restored before returning.
+     * @param context search context: parameters, board holding the root position and kernel holding the deal
+     * @return depth of the position rolled out (number of moves from the root)
+     */
+    public int trial(SearchContext context) {
+        LineBoard board = context.board;
+        RolloutKernel kernel = context.kernel;
+        int startCards = board.getNumCards();
+        int dealt = 0;
+
+        /* Loop until the leaf node */
+        int node = ROOT;
+        while (childCount[node] > 0) {
+            node = bestUCTChild(node, context.selectionConstant, context.random);
+            board.make(cell[node], kernel.getCard(dealt++));
+        }
+
+        /* Node Expansion (unless the board is full), then pick the child to roll out */
+        int bestChild = node;
+        if (board.getNumCards() < LineBoard.NUM_POS) {
+            int card = kernel.getCard(dealt++);
+            nodeExpansion(node, context, card);
+            bestChild = bestUCTChild(node, context.selectionConstant, context.random);
+            board.make(cell[bestChild], card);
+        }
+
+        /* Do roll out, then update the stats for each node from the rolled out child back up to the root */
+        double backpropagationValue = context.rollOut(dealt);
+        for (int n = bestChild; n != NONE; n = parent[n]) {
+            visits[n]++;
+            totalValue[n] += backpropagationValue;
+        }
+
+        /* Take back the moves made on the way down */
+        while (board.getNumCards() > startCards) {
+            board.undo();
+        }
+        return dealt;
+    }
+
+    /**
+     * Step 2: Append one child per empty cell to the given leaf, or for the root one per class of equivalent
+     * placements (see SearchContext.getExpansionCells): the visits of a class then all go to its one child.
+     * @param node leaf to expand
+     * @param context search context whose board holds the leaf's position
+     * @param card id of the card to place
+     */
+    private void nodeExpansion(int node, SearchContext context, int card) {
+        int count = context.getExpansionCells(card, node == ROOT);
+        int[] cells = context.cells;
+        int first = size;
+        for (int i = 0; i < count; i++) {
+            newNode(node, cells[i], card);
+        }
+        firstChild[node] = first;
+        childCount[node] = count;
+    }
+
+    /**
+     * Step 3: Return the child of the given node with the max UCB1 value (small random tie breaker).
+     * @param node expanded node
+     * @param selectionConstant UCT exploration constant
+     * @param random random number generator for tie breaking
+     * @return index of the best child
+     */
+    public int bestUCTChild(int node, double selectionConstant, SplittableRandom random) {
+        int bestNode = NONE;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        double logVisits = Math.log(visits[node] + 1);
+        int end = firstChild[node] + childCount[node];
+        for (int child = firstChild[node]; child < end; child++) {
+            double childVisits = visits[child] + MCTreeNode.smallTieBreaker;
+            double uctValue = totalValue[child] / childVisits +
+            selectionConstant * Math.sqrt(logVisits / childVisits) +
+            random.nextDouble() * MCTreeNode.smallTieBreaker;
+            if (uctValue > bestValue) {
+                bestNode = child;
+                bestValue = uctValue;
+            }
+        }
+        return bestNode;
+    }
+
+    /**
+     * Throw away everything below the root's children (the nodes that depend on the current deal).
+     * The root's children were created first, so this just moves the end of the arena back behind them.
+     */
+    public void pruneBelowRootChildren() {
+        int end = firstChild[ROOT] + childCount[ROOT];
+        for (int child = firstChild[ROOT]; child < end; child++) {
+            firstChild[child] = NONE;
+            childCount[child] = 0;
+        }
+        size = Math.max(end, ROOT + 1);
+    }
+
+    /**
+     * @param node node index
+     * @return index of the node's first child (its children are contiguous)
+     */
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    /**
+     * @param node node index
+     * @return number of children of the node
+     */
+    public int getChildCount(int node) {
+        return childCount[node];
+    }
+
+    /**
+     * @param node node index
+     * @return cell of the node's move
+     */
+    public int getCell(int node) {
+        return cell[node];
+    }
+
+    /**
+     * @param node node index
+     * @return number of visits of the node
+     */
+    public double getVisits(int node) {
+        return visits[node];
+    }
+
+    /**
+     * @param node node index
+     * @return total value backpropagated through the node
+     */
+    public double getTotalValue(int node) {
+        return totalValue[node];
+    }
+
+    /**
+     * @return number of nodes in use
+     */
+    public int size() {
+        return size;
+    }
+}
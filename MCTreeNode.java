@@ -7,6 +7,9 @@
  * 4. Rollout
  * 5. Update stats for each node
  * 
+ * Nodes can be searched by many threads at once (tree parallelization). Single-threaded searches
+ * use the same algorithm on the flat MCTreeArena instead.
+ * 
  * This is exactly the same implementation as the video below.
  * Reference Video: https://www.youtube.com/watch?v=UXW2yZndl7U&t=6s
  * 
@@ -14,170 +17,275 @@
  * Date: 2021-12-02
  */
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Random;
-import java.util.Stack;
-import java.util.List;
-import java.util.LinkedList;
-import java.util.Objects;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.SplittableRandom;
 
-@SuppressWarnings("unchecked")
 public class MCTreeNode {
-    private ZMPlayer zmPlayer = new ZMPlayer();
-    PokerSquaresPointSystem system; /* System will be passed as a parameter */
-    public Random random = new Random(); // pseudorandom number generator for Monte Carlo simulation 
-    public final double smallTieBreaker = 1e-6; 
+    public static final double smallTieBreaker = 1e-6; 
+    public static final int NO_MOVE = -1; /* cell and card of the root, which represents no move */
+
+    /* Atomic access to the fields below, so that many threads can search one tree (tree parallelization) */
+    private static final VarHandle VISIT;
+    private static final VarHandle TOTAL_VALUE_BITS;
+    private static final VarHandle VIRTUAL_LOSS;
+    private static final VarHandle EXPANSIONS;
+    private static final VarHandle NODE_BUDGET;
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            VISIT = lookup.findVarHandle(MCTreeNode.class, "visit", int.class);
+            TOTAL_VALUE_BITS = lookup.findVarHandle(MCTreeNode.class, "totalValueBits", long.class);
+            VIRTUAL_LOSS = lookup.findVarHandle(MCTreeNode.class, "virtualLoss", int.class);
+            EXPANSIONS = lookup.findVarHandle(MCTreeNode.class, "expansions", Expansion.class);
+            NODE_BUDGET = lookup.findVarHandle(MCTreeNode.class, "nodeBudget", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * The children of a node for one card: one per empty cell (or per class of equivalent cells at the root).
+     * A node keeps one expansion per card drawn at it, so below the root every node stands for a (cell, card) move
+     * whichever thread's deal reaches it, as in the per-deal trees of the other search modes.
+     */
+    private static final class Expansion {
+        final int cardId;
+        final MCTreeNode[] children;
+        final Expansion next; /* expansion for another card, or null */
+
+        Expansion(int cardId, MCTreeNode[] children, Expansion next) {
+            this.cardId = cardId;
+            this.children = children;
+            this.next = next;
+        }
+    }
 
-    public Card[][] board;
-    private int numberOfActions; // number of actions made so far in this simulation
-    public MCTreeNode[] children; /* This node's children, empty for now */
-    private MCTreeNode parent; /* This node's parent. If it has a parent, then this node has already being chosen as the best move among all children */
-    private double visit = 0;
-    private double totalValue = 0;
-    public int numSimulationsPerRollout = 1;
-    public double selectionConstant = 10;
+    /* A node only records the move that leads to it. The board itself is shared by the whole search 
+     * (see LineBoard): trial() makes each move on the way down and undoes them all before returning. */
+    public final int cell; /* Row-major index of the cell this node's card was placed in */
+    public final int cardId; /* Id of the card placed by this node's move */
+    private volatile Expansion expansions; /* This node's children for each card expanded so far, null for a leaf. Each expansion is published once, after its children are all created */
+    private final MCTreeNode parent; /* This node's parent. If it has a parent, then this node has already being chosen as the best move among all children */
+    private volatile int visit = 0; /* Number of trials backpropagated through this node */
+    private volatile long totalValueBits = Double.doubleToRawLongBits(0); /* Sum of their values (raw bits of a double) */
+    private volatile int virtualLoss = 0; /* Virtual visits of threads currently searching below this node */
+    private volatile int nodeBudget; /* Root only: number of nodes trials may still add to the tree */
 
     /**
      * This constructor is ONLY for the root node of MCTree
-     * @param numPlays
-     * @param board
-     * @param system
-     */
-    public MCTreeNode(int numPlays, Card[][] board, PokerSquaresPointSystem system) {
-        numberOfActions = numPlays;
-        this.board = board;
-        this.system = system;
+     */
+    public MCTreeNode() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * This constructor is ONLY for the root node of an MCTree of at most the given number of nodes besides the root:
+     * once they are all added, trials roll out from the leaf they reach instead of expanding it.
+     * @param maxNodes maximum number of nodes trials may add
+     */
+    public MCTreeNode(int maxNodes) {
+        this.cell = NO_MOVE;
+        this.cardId = NO_MOVE;
         this.parent = null;
+        this.nodeBudget = maxNodes;
     }
 
     /**
      * This constructor is for any other node except the root node of MCTree.
      * It must be initialized with a parent node.
      * @param parent
-     * @param board
-     * @param system
+     * @param cell
+     * @param cardId
      */
-    private MCTreeNode(MCTreeNode parent, Card[][] board, PokerSquaresPointSystem system) { //for tree branches, called by nodes
-        this.numberOfActions = parent.numberOfActions + 1; /* An action has been taken */
+    private MCTreeNode(MCTreeNode parent, int cell, int cardId) { //for tree branches, called by nodes
         this.parent = parent;
-        this.board = board;
-        this.system = system;
+        this.cell = cell;
+        this.cardId = cardId;
     }
 
     /**
      * Step 1: Do trials for the current Deck.
-     * First, visit this currentNode and check if it is leaf already. 
-     * If not, keep choosing its children that has the best UCB value.
-     * Then, expand this leaf node to let it has the children with all possibilites of the position that
-     * the next card could possibly be placed.
+     * First, visit this currentNode and check if it has children for the deal's next card already.
+     * If so, keep choosing its children that has the best UCB value.
+     * Then, expand this leaf node for that card to let it have the children with all possibilites of the position that
+     * the card could possibly be placed.
      * Pick the children with the best UCB value (if first time, then tiebreaker), visit it, and do the rollout.
      * Finally, update the stats of the children to be used for the next trail.
-     * @param tempCard
-     * @param temporaryDeck
+     * The board must hold this node's position; it is restored before returning.
+     * 
+     * Each move places the card of this trial's deal at the child's cell, and the children of a node are kept apart
+     * per card, so several threads, each with its own board, kernel and deal, may run trials on the same tree at once.
+     * They then pass a positive virtualLoss: every node a thread descends into counts that many extra visits, each
+     * worth virtualLossValue, until the thread backpropagates, which steers the other threads towards different
+     * children.
+     * @param context search context of the calling thread: parameters, board holding this node's position and
+     * kernel holding the deal (deck order) for this trial
+     * @param virtualLoss virtual visits added along the path while the trial runs (0 for a single-threaded search)
+     * @param virtualLossValue value of each virtual visit (a pessimistic trial value)
+     * @return depth of the node rolled out (number of moves from this node)
      */
-    public void trial(Card tempCard, LinkedList<Card> temporaryDeck) {
-        /* Copy the deck for trial */
-        LinkedList<Card> deckForTrial = (LinkedList<Card>) temporaryDeck.clone();
+    public int trial(SearchContext context, int virtualLoss, double virtualLossValue) {
+        LineBoard board = context.board;
+        RolloutKernel kernel = context.kernel;
+        int startCards = board.getNumCards();
+        /* Count the cards dealt from the kernel's deal for this trial instead of copying it */
+        int dealt = 0;
 
-        /* Make a list to keep tarcking the visited nodes */
-        List<MCTreeNode> visited = new LinkedList<MCTreeNode>();
         MCTreeNode currentNode = this;
-        /* Mark this node as visited */
-        visited.add(this);
-
-        /* Loop until the leaf node */
-        while (currentNode.children != null) {
-            currentNode = currentNode.bestUCTValue();
-            visited.add(currentNode);
-            deckForTrial.pop();
-        }
-
-        /* Node Expansion */
-        Card card = deckForTrial.pop();
-        currentNode.nodeExpansion(card);
 
-        /* Select the child with max UCB Value for the rollout */
-        MCTreeNode bestChild;
-        /* if numberOfActions == 25, just return the currentNode */
-        if (currentNode.numberOfActions == zmPlayer.NUM_POS) {
-            bestChild = currentNode;
-        }
-        else {
+        /* Loop until a node with no children for the next card (or a full board) */
+        while (board.getNumCards() < LineBoard.NUM_POS) {
+            int cardId = kernel.getCard(dealt);
+            MCTreeNode[] currentChildren = currentNode.getChildren(cardId);
+            boolean expanded = false;
+            if (currentChildren == null) {
+                /* Node Expansion, unless another thread has just expanded it for this card or the tree is full: then
+                 * roll out from the leaf */
+                currentChildren = currentNode.nodeExpansion(context, cardId, this);
+                if (currentChildren == null) {
+                    break;
+                }
+                expanded = true;
+            }
             /* Select the child with the best UCT value (being visited the most times, potentially :)) */
-            bestChild = currentNode.bestUCTValue();
-            visited.add(bestChild);
-        }
-        
-        /* Do roll out, then update the stats for each node */
-        double backpropagationValue = 0;
-        for(int i = 0; i < numSimulationsPerRollout; i++) {
-            backpropagationValue = backpropagationValue + bestChild.rollOut(deckForTrial);
+            currentNode = bestUCTValue(currentChildren, context.selectionConstant, context.random, virtualLossValue);
+            currentNode.addVirtualLoss(virtualLoss);
+            board.make(currentNode.cell, cardId);
+            dealt++;
+            if (expanded) {
+                /* Roll out the new child */
+                break;
+            }
         }
-        for (MCTreeNode node : visited) {
+
+        /* Do roll out, then update the stats for each node from the rolled out node back up to this node */
+        double backpropagationValue = context.rollOut(dealt);
+        for (MCTreeNode node = currentNode; node != parent; node = node.parent) {
             node.updateStats(backpropagationValue);
+            if (node != this) {
+                node.addVirtualLoss(-virtualLoss);
+            }
+        }
+
+        /* Take back the moves made on the way down */
+        while (board.getNumCards() > startCards) {
+            board.undo();
         }
+        return dealt;
     }
 
     /**
-     * Step 2: Find all the possibilities of the cnext card's potential position,
-     * store them as children, append it to the currentNode.
-     * @param card
+     * Step 1 for a single-threaded search (no virtual loss).
+     * @param context search context: parameters, board holding this node's position and kernel holding the deal
+     * @return depth of the node rolled out (number of moves from this node)
      */
-    public void nodeExpansion(Card card) {
-        if (numberOfActions == zmPlayer.NUM_POS) {
-            children = null;
-            return;
+    public int trial(SearchContext context) {
+        return trial(context, 0, 0);
+    }
+
+    /**
+     * Throw away this node's subtree, so that it is a leaf again (for the root, its nodes go back to the node budget).
+     * Must not run concurrently with trials.
+     */
+    public void prune() {
+        if (parent == null) {
+            nodeBudget += (int) (countNodes() - 1);
         }
-        else {
-            int cardPos = 0; // Used for record the card position for each children */
-            /* You're gonna have 25-1 children for that root node! */
-            MCTreeNode[] children = new MCTreeNode[zmPlayer.NUM_POS - numberOfActions];
+        expansions = null;
+    }
 
-            for (int i = 0; i < zmPlayer.NUM_POS - numberOfActions; i++) {
+    /**
+     * Return this node's children for the given card.
+     * @param cardId card placed by the children
+     * @return the children, or null if the node has not been expanded for that card
+     */
+    public MCTreeNode[] getChildren(int cardId) {
+        for (Expansion expansion = expansions; expansion != null; expansion = expansion.next) {
+            if (expansion.cardId == cardId) {
+                return expansion.children;
+            }
+        }
+        return null;
+    }
 
-                Card[][] tempBoard = new Card[zmPlayer.SIZE][zmPlayer.SIZE];
+    /**
+     * Step 2: Find all the possibilities of the next card's potential position,
+     * store them as children for that card, append it to the currentNode.
+     * At the root (see SearchContext.getExpansionCells), placements that lead to equivalent positions share one
+     * child (the first of their cells), so their visits add up instead of being spread over identical options.
+     * The children array is filled first and published last, so other threads never see a partial array.
+     * @param context search context of the calling thread, whose board holds this node's position (not full)
+     * @param cardId
+     * @param root root of the tree, holding the node budget
+     * @return the new children, or null if another thread expanded this node for the card first or the node budget
+     * has run out
+     */
+    private MCTreeNode[] nodeExpansion(SearchContext context, int cardId, MCTreeNode root) {
+        /* You're gonna have up to 25-1 children for that root node! */
+        int count = context.getExpansionCells(cardId, parent == null);
+        int[] cells = context.cells;
+        if ((int) NODE_BUDGET.getAndAdd(root, -count) < count) {
+            NODE_BUDGET.getAndAdd(root, count); /* (give the reservation back: the tree is full) */
+            return null;
+        }
+        MCTreeNode[] children = new MCTreeNode[count];
 
-                /* Copy whatever in the already played board */
-                for(int row = 0; row < zmPlayer.SIZE; row++) {
-                    for(int col = 0; col < zmPlayer.SIZE; col++) {
-                        tempBoard[row][col] = board[row][col];
-                    }
-                }
-                
-                /* From 0,0 -> 0,1 -> 0,2.... find the position that is not null */
-                while (this.board[cardPos / zmPlayer.SIZE][cardPos % zmPlayer.SIZE] != null) {
-                    cardPos++;
+        for (int i = 0; i < children.length; i++) {
+            /* Each child demonstrates one possibility of this card's potential position in the board */
+            children[i] = new MCTreeNode(this, cells[i], cardId);
+        }
+        /* Add those children to this node, unless another thread added children for the same card first */
+        Expansion head;
+        do {
+            head = expansions;
+            for (Expansion expansion = head; expansion != null; expansion = expansion.next) {
+                if (expansion.cardId == cardId) {
+                    NODE_BUDGET.getAndAdd(root, count);
+                    return null;
                 }
-                /* Place the card in that first null position */
-                tempBoard[cardPos / zmPlayer.SIZE][cardPos % zmPlayer.SIZE] = card;
-                
-                /* children numba i (range: 0-24) shall be added for the root */
-                /* This demonstrates zmPlayer.NUM_POS - numberOfActions of possibilities of this card's potential position in the board */
-                children[i] = new MCTreeNode(this, tempBoard, system);
-                cardPos++;
             }
-            /* Assign those (zmPlayer.NUM_POS - numberOfActions) # of children to the root node */
-            this.children = children;
-        }
+        } while (!EXPANSIONS.compareAndSet(this, head, new Expansion(cardId, children, head)));
+        return children;
     }
 
     /**
-     * Step 3: Choose the child node (partially filled board) that has the max UCB1(S)
-     * (Tiebreaker if the first time)
+     * Step 3: Choose the child node (partially filled board) that has the max UCB1(S) among the children for
+     * the given card (Tiebreaker if the first time)
      * May the best child win.
+     * @param cardId card placed by the children (this node must have been expanded for it)
+     * @param selectionConstant UCT exploration constant
+     * @param random random number generator for tie breaking
      */
-    public MCTreeNode bestUCTValue() {
+    public MCTreeNode bestUCTValue(int cardId, double selectionConstant, SplittableRandom random) {
+        return bestUCTValue(getChildren(cardId), selectionConstant, random, 0);
+    }
+
+    /**
+     * Step 3, counting the virtual visits of other threads as visits worth virtualLossValue each.
+     * The parent's visits are those of its children for this card, i.e. the visits of the parent with the card drawn.
+     * @param children children of one expansion of the parent
+     * @param selectionConstant UCT exploration constant
+     * @param random random number generator for tie breaking
+     * @param virtualLossValue value of each virtual visit
+     */
+    private static MCTreeNode bestUCTValue(MCTreeNode[] children, double selectionConstant, SplittableRandom random, double virtualLossValue) {
         MCTreeNode bestNode = null;
-        double bestValue = Double.MIN_VALUE;
-        //System.out.println(visit);
+        double bestValue = Double.NEGATIVE_INFINITY; /* UCT values can be negative with negative hand scores */
+        double visit = 0;
+        for (MCTreeNode child : children) {
+            visit += child.visit + child.virtualLoss;
+        }
 
         /* May the best child win. */
         for (MCTreeNode child : children) {
+            int childVirtualLoss = child.virtualLoss;
+            double childVisit = child.visit + childVirtualLoss; /* (read before the total: see updateStats) */
+            double childValue = child.getTotalValue() + childVirtualLoss * virtualLossValue;
             /* small random number to break ties randomly in unexpanded nodes */
-            double uctValue = child.totalValue / (child.visit + smallTieBreaker) + 
-            selectionConstant * (Math.sqrt(Math.log(visit+1) / (child.visit + smallTieBreaker))) + 
-            zmPlayer.random.nextDouble() * smallTieBreaker;
+            double uctValue = childValue / (childVisit + smallTieBreaker) + 
+            selectionConstant * (Math.sqrt(Math.log(visit+1) / (childVisit + smallTieBreaker))) + 
+            random.nextDouble() * smallTieBreaker;
             if (uctValue > bestValue) {
                 bestNode = child;
                 bestValue = uctValue;
@@ -185,56 +293,75 @@ public class MCTreeNode {
         }
         return bestNode;
     }
-    
+
     /**
-     * Step 4: Rollout, randomly (Hey Mike, if you're reading this line, the rollout can actually 
-     * could be improved better to always select the best potential move each time using an evaluation
-     * function, but no time to do it):)
+     * Step 4: Rollout with the kernel's RolloutPolicy: each card goes to the empty cell with the largest potential
+     * gain of its row and column under the point system (the potential table of PointSystemAnalysis), or with
+     * probability epsilon to a random empty cell; without a policy (e.g. no potential table in time), at random.
+     * The rollout runs on the kernel's preallocated arrays and allocates nothing. The cards placed are taken back before returning.
+     * @param board shared board to fill
+     * @param kernel rollout kernel holding the deal for this trial
+     * @param dealt number of cards of the deal already placed
      */
-    public double rollOut(LinkedList<Card> temporaryDeck) {
-        LinkedList<Card> deckForRollout = (LinkedList<Card>) temporaryDeck.clone();
-        
-        /* copy current board to new board to fill for rollout */
-        Card[][] boardToFill = new Card[zmPlayer.SIZE][zmPlayer.SIZE];
-        for(int row = 0; row < zmPlayer.SIZE; row++) {
-            for(int col = 0; col < zmPlayer.SIZE; col++) {
-                boardToFill[row][col] = board[row][col];
-            }
-        }
+    public static double rollOut(LineBoard board, RolloutKernel kernel, int dealt) {
+        return kernel.rollOut(board, dealt);
+    }
+
+    /**
+     * Get the number of times this node has been visited.
+     * @return number of visits
+     */
+    public double getVisits() {
+        return visit;
+    }
+
+    /**
+     * Get the sum of the values backpropagated through this node.
+     * @return total value
+     */
+    public double getTotalValue() {
+        return Double.longBitsToDouble(totalValueBits);
+    }
 
-        /* A stack recording the empty positions on the current board */
-        Stack<Integer> emptyPositions = new Stack<Integer>();
-        /* Find all empty positions of board */
-        for(int i = 0; i < zmPlayer.NUM_POS; i++) {
-            if (boardToFill[i / zmPlayer.SIZE][i % zmPlayer.SIZE] == null) {
-                //System.out.println(boardToFill[i / zmPlayer.SIZE][i % zmPlayer.SIZE]);
-                /* Get all the empty positions on the Stack */
-                emptyPositions.push(i);
+    /**
+     * Count the nodes of this node's subtree, this node included. Must not run concurrently with trials.
+     * @return number of nodes
+     */
+    public long countNodes() {
+        long count = 1;
+        for (Expansion expansion = expansions; expansion != null; expansion = expansion.next) {
+            for (MCTreeNode child : expansion.children) {
+                count += child.countNodes();
             }
         }
-        
-        /* get an empty position randomly to put next card in */
-        Collections.shuffle(emptyPositions, zmPlayer.random);
-        while(!emptyPositions.empty()) {
-            int square = emptyPositions.pop().intValue();
-            //System.out.println(square);
-            /* pop a random card for it */
-            boardToFill[square / zmPlayer.SIZE][square % zmPlayer.SIZE] = deckForRollout.pop();
+        return count;
+    }
+
+    /**
+     * Add (or with a negative amount, remove) virtual visits.
+     * @param amount number of virtual visits
+     */
+    private void addVirtualLoss(int amount) {
+        if (amount != 0) {
+            VIRTUAL_LOSS.getAndAdd(this, amount);
         }
-        double finalscore = system.getScore(boardToFill);
-        //System.out.println(finalScore);
-        return finalscore;
-        
     }
-    
+
     /**
      * Step 5: Update # of visits for this node, and it's total value across all the simulations
-     * for future use.
+     * for future use. Lock-free and allocation-free, so concurrent trials never lose an update: the value is
+     * added to the raw bits of the total with a compare-and-set loop, then the visit is counted with an atomic add.
+     * A reader that reads the visits before the total (as bestUCTValue does) may see in the total the values of
+     * updates still in flight, at most one per other thread, never a visit without its value.
      * @param value
      */
     public void updateStats(double value) {
-        totalValue += value;
-        visit++;
+        long oldBits;
+        do {
+            oldBits = totalValueBits;
+        } while (!TOTAL_VALUE_BITS.compareAndSet(this, oldBits,
+                Double.doubleToRawLongBits(Double.longBitsToDouble(oldBits) + value)));
+        VISIT.getAndAdd(this, 1);
     }
-    
+
 }
@@ -0,0 +1,408 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
+
+/**
+ * PointSystemAnalysis - data a player precomputes for a point system, cached in memory and on disk.
+ *
+ * An analysis holds:
+ * - the line potential table of RolloutPolicy (expected final line score of every LineState under random completion);
+ * - the minimum game score the score table allows (10 lines), the value of a virtual visit in tree-parallel search.
+ * It is computed in parallel on all cores (the states of each line size), which takes well under a second.
+ *
+ * get() looks an analysis up by the contents of the score table: first in memory (so the players of a tournament
+ * share one analysis per point system; the MAX_CACHED_ANALYSES most recently used are kept), then in a file of the
+ * cache directory if one is given (ZMPlayer uses DEFAULT_CACHE_DIR, pokersquares-analysis in the system temporary
+ * directory), which is memory-mapped and read in milliseconds, and computes and saves it otherwise. A directory keeps
+ * the files of the MAX_CACHED_FILES most recently used score tables (about 550 KB each): loading a file refreshes its
+ * modification time, and saving one deletes the least recently used files beyond that, so a stream of random point
+ * systems does not fill the disk. The first player to ask for a point system puts a future in the map and does the
+ * work outside it; players asking for the same system meanwhile wait for that future, and players
+ * asking for other systems are not held up. Files are written to a temporary name and moved into place,
+ * so concurrent players never read a partial file; a file that cannot be read or written is recomputed or skipped.
+ */
+public class PointSystemAnalysis {
+
+	public static final String DEFAULT_CACHE_DIR = Paths.get(System.getProperty("java.io.tmpdir"), "pokersquares-analysis").toString();
+	private static final int MAGIC = 0x50535041; // "PSPA"
+	private static final int VERSION = 2;
+	private static final int MAX_CACHED_ANALYSES = 16; // analyses kept in memory (about 550 KB each), least recently used first out
+	private static final int MAX_CACHED_FILES = 64; // files kept in a cache directory (about 550 KB each), least recently used first out
+	private static final Map<String, CompletableFuture<PointSystemAnalysis>> analyses // (guarded by itself)
+			= new LinkedHashMap<String, CompletableFuture<PointSystemAnalysis>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<PointSystemAnalysis>> eldest) {
+			return size() > MAX_CACHED_ANALYSES;
+		}
+	};
+
+	private final int[] scoreTable; // score of each Poker hand id
+	private final double[] potentials; // expected final line score indexed by LineState
+	private final int minScore; // minimum game score allowed by the score table
+
+	private PointSystemAnalysis(int[] scoreTable, double[] potentials, int minScore) {
+		this.scoreTable = scoreTable;
+		this.potentials = potentials;
+		this.minScore = minScore;
+	}
+
+	/**
+	 * Return the analysis of a point system: from memory, from the cache directory, or computed (and saved there).
+	 * @param system point system
+	 * @param cacheDir cache directory (created if needed), or null to keep analyses in memory only
+	 * @return analysis of the point system
+	 */
+	public static PointSystemAnalysis get(PokerSquaresPointSystem system, String cacheDir) {
+		return future(system, cacheDir).join();
+	}
+
+	/**
+	 * Return the analysis of a point system if it is ready within the given time, and otherwise an analysis without
+	 * potential table (getPotentials returns null), so that a player can start within its setup time. The analysis
+	 * is then still completed in the background, for the players that ask for it later.
+	 * @param system point system
+	 * @param cacheDir cache directory (created if needed), or null to keep analyses in memory only
+	 * @param millis maximum time to wait for the analysis in milliseconds
+	 * @return analysis of the point system, without potential table if it was not ready in time
+	 */
+	public static PointSystemAnalysis get(PokerSquaresPointSystem system, String cacheDir, long millis) {
+		CompletableFuture<PointSystemAnalysis> future = future(system, cacheDir);
+		try {
+			return future.get(Math.max(0, millis), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			// not ready in time
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Point system analysis failed", e.getCause());
+		}
+		int[] scoreTable = system.getScoreTable();
+		return new PointSystemAnalysis(scoreTable, null, minScore(scoreTable));
+	}
+
+	/**
+	 * Return the future analysis of a point system, starting to load or compute it on a worker thread if no player
+	 * has asked for it yet.
+	 * @param system point system
+	 * @param cacheDir cache directory (created if needed), or null
+	 * @return future analysis
+	 */
+	private static CompletableFuture<PointSystemAnalysis> future(PokerSquaresPointSystem system, String cacheDir) {
+		String key = key(system.getScoreTable());
+		CompletableFuture<PointSystemAnalysis> future = new CompletableFuture<PointSystemAnalysis>();
+		CompletableFuture<PointSystemAnalysis> existing;
+		synchronized (analyses) {
+			existing = analyses.putIfAbsent(key, future);
+		}
+		if (existing != null)
+			return existing; // loaded or computed by another player
+		Thread worker = new Thread(() -> {
+			try {
+				future.complete(loadOrCompute(system, key, cacheDir));
+			} catch (RuntimeException | Error e) {
+				synchronized (analyses) {
+					analyses.remove(key, future); // let the next player try again
+				}
+				future.completeExceptionally(e);
+			}
+		}, "PointSystemAnalysis");
+		worker.setDaemon(true); // never keep the game from exiting
+		worker.start();
+		return future;
+	}
+
+	/**
+	 * Load the analysis of a point system from the cache directory, or compute it (and save it there).
+	 * @param system point system
+	 * @param key cache key of its score table
+	 * @param cacheDir cache directory (created if needed), or null
+	 * @return analysis of the point system
+	 */
+	private static PointSystemAnalysis loadOrCompute(PokerSquaresPointSystem system, String key, String cacheDir) {
+		int[] scoreTable = system.getScoreTable();
+		Path file = cacheDir == null ? null : Paths.get(cacheDir, "system" + key + ".bin");
+		if (file != null && Files.isReadable(file)) {
+			try {
+				PointSystemAnalysis analysis = load(file, scoreTable);
+				if (analysis != null) {
+					Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis())); // (recently used)
+					return analysis;
+				}
+			} catch (IOException e) {
+				// unreadable: recompute and overwrite
+			}
+		}
+		PointSystemAnalysis analysis = compute(system);
+		if (file != null) {
+			try {
+				analysis.save(file);
+				trim(file.getParent());
+			} catch (IOException e) {
+				System.err.println("Point system analysis not cached: " + e);
+			}
+		}
+		return analysis;
+	}
+
+	/**
+	 * Delete the least recently used cache files of a directory beyond MAX_CACHED_FILES. Files that other players
+	 * delete or touch meanwhile are skipped.
+	 * @param dir cache directory
+	 * @throws IOException if the directory cannot be listed
+	 */
+	private static void trim(Path dir) throws IOException {
+		List<Path> files = new ArrayList<>();
+		List<Long> times = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "system*.bin")) {
+			for (Path file : stream) {
+				try {
+					times.add(Files.getLastModifiedTime(file).toMillis());
+					files.add(file);
+				} catch (IOException e) {
+					// deleted meanwhile
+				}
+			}
+		}
+		Integer[] order = new Integer[files.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> Long.compare(times.get(a), times.get(b)));
+		for (int i = 0; i < order.length - MAX_CACHED_FILES; i++)
+			Files.deleteIfExists(files.get(order[i]));
+	}
+
+	/**
+	 * Return the cache key of a score table: its scores separated by underscores.
+	 */
+	private static String key(int[] scoreTable) {
+		StringBuilder key = new StringBuilder();
+		for (int score : scoreTable)
+			key.append('_').append(score);
+		return key.toString();
+	}
+
+	/**
+	 * Compute the analysis of a point system in parallel.
+	 * @param system point system
+	 * @return analysis of the point system
+	 */
+	public static PointSystemAnalysis compute(PokerSquaresPointSystem system) {
+		int[] scoreTable = system.getScoreTable();
+		return new PointSystemAnalysis(scoreTable, computePotentials(system), minScore(scoreTable));
+	}
+
+	/**
+	 * Return the minimum game score a score table allows: 10 lines of its lowest hand score.
+	 */
+	private static int minScore(int[] scoreTable) {
+		int min = Integer.MAX_VALUE;
+		for (int score : scoreTable)
+			min = Math.min(min, score);
+		return min * 2 * LineBoard.SIZE;
+	}
+
+	/**
+	 * Compute the line potential table of a point system (see RolloutPolicy): the score itself for a full line,
+	 * otherwise the average potential of the states reached by adding one more card, each rank weighted by its
+	 * copies not in the line and suits uniform. Line sizes are done from full to empty, the states of a size in
+	 * parallel. Scores do not depend on which suit a flush has, so the states of a line of one suit are computed for
+	 * the first suit only and copied to the other suits (a suit relabeling, see SuitIsomorphism).
+	 * @param system point system
+	 * @return potentials indexed by LineState
+	 */
+	public static double[] computePotentials(PokerSquaresPointSystem system) {
+		int[] lineScores = system.getLineScores();
+		double[] potentials = new double[LineState.NUM_STATES];
+		for (int size = PokerHandTable.LINE_SIZE; size >= 0; size--) {
+			int lineSize = size;
+			IntStream.range(0, LineState.NUM_STATES).parallel().forEach(state -> {
+				int suitState = state & LineState.SUIT_MASK;
+				if (LineState.size(state) != lineSize || suitState > LineState.MIXED_SUITS)
+					return; // other size, or an unused suit code
+				if (suitState > 1 && suitState < LineState.MIXED_SUITS)
+					return; // one suit other than the first: copied from the first
+				double potential = lineSize == PokerHandTable.LINE_SIZE ? lineScores[state] : expectedPotential(potentials, state);
+				potentials[state] = potential;
+				if (suitState == 1) {
+					for (int suit = 1; suit < Card.NUM_SUITS; suit++)
+						potentials[state + suit] = potential;
+				}
+			});
+		}
+		return potentials;
+	}
+
+	/**
+	 * Return the average potential of the states reached from a line state by adding one more card.
+	 */
+	private static double expectedPotential(double[] potentials, int state) {
+		double sum = 0;
+		int weight = 0;
+		for (int rank = 0; rank < Card.NUM_RANKS; rank++) {
+			int copies = Card.NUM_SUITS - countRank(state, rank);
+			if (copies <= 0)
+				continue;
+			double rankSum = 0;
+			for (int suit = 0; suit < Card.NUM_SUITS; suit++)
+				rankSum += potentials[LineState.place(state, suit * Card.NUM_RANKS + rank)];
+			sum += copies * rankSum / Card.NUM_SUITS;
+			weight += copies;
+		}
+		return sum / weight;
+	}
+
+	/**
+	 * Return the number of cards of the given rank in a line state.
+	 */
+	private static int countRank(int state, int rank) {
+		int count = 0;
+		for (int rankState = state >>> LineState.SUIT_BITS; (rankState = PokerHandTable.RANK_PREV[rankState * Card.NUM_RANKS + rank]) >= 0; )
+			count++;
+		return count;
+	}
+
+	/**
+	 * Read an analysis from a memory-mapped cache file.
+	 * @param file cache file
+	 * @param scoreTable score table the analysis must be for
+	 * @return the analysis, or null if the file is of another version or another score table
+	 * @throws IOException if the file cannot be read
+	 */
+	private static PointSystemAnalysis load(Path file, int[] scoreTable) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < size() || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+					|| buffer.getInt() != scoreTable.length || buffer.getInt() != LineState.NUM_STATES)
+				return null;
+			for (int score : scoreTable)
+				if (buffer.getInt() != score)
+					return null;
+			int minScore = buffer.getInt();
+			double[] potentials = new double[LineState.NUM_STATES];
+			buffer.asDoubleBuffer().get(potentials);
+			return new PointSystemAnalysis(scoreTable, potentials, minScore);
+		}
+	}
+
+	/**
+	 * Return the size of a cache file in bytes.
+	 */
+	private static int size() {
+		return 4 * 4 + PokerHand.NUM_HANDS * 4 + 4 + LineState.NUM_STATES * 8;
+	}
+
+	/**
+	 * Write this analysis to a cache file (through a temporary file moved into place).
+	 * @param file cache file
+	 * @throws IOException if the file cannot be written
+	 */
+	private void save(Path file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size());
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(scoreTable.length).putInt(LineState.NUM_STATES);
+		for (int score : scoreTable)
+			buffer.putInt(score);
+		buffer.putInt(minScore);
+		buffer.asDoubleBuffer().put(potentials);
+		Files.createDirectories(file.getParent());
+		Path temp = Files.createTempFile(file.getParent(), "system", ".tmp");
+		try {
+			Files.write(temp, buffer.array());
+			try {
+				Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Return the line potential table (shared: it must not be modified).
+	 * @return expected final line score indexed by LineState, or null if it was not ready within the time allowed
+	 */
+	public double[] getPotentials() {
+		return potentials;
+	}
+
+	/**
+	 * @return minimum game score allowed by the score table (10 lines of the lowest hand score)
+	 */
+	public int getMinScore() {
+		return minScore;
+	}
+
+	/**
+	 * Time computing, saving and loading the analyses of a few point systems (in a temporary cache directory), then
+	 * check that the directory keeps at most MAX_CACHED_FILES files, the most recently used ones.
+	 * @param args (not used)
+	 * @throws IOException if the temporary directory cannot be created or deleted
+	 */
+	public static void main(String[] args) throws IOException {
+		Path dir = Files.createTempDirectory("analysis");
+		PokerSquaresPointSystem[] systems = {PokerSquaresPointSystem.getAmericanPointSystem(),
+				PokerSquaresPointSystem.getBritishPointSystem(), PokerSquaresPointSystem.getHypercornerPointSystem(),
+				PokerSquaresPointSystem.getRandomPointSystem()};
+		try {
+			for (PokerSquaresPointSystem system : systems) {
+				int[] scoreTable = system.getScoreTable();
+				long start = System.nanoTime();
+				PointSystemAnalysis computed = get(system, dir.toString());
+				long computedNanos = System.nanoTime() - start;
+				synchronized (analyses) {
+					analyses.clear(); // forget the in-memory copy
+				}
+				start = System.nanoTime();
+				PointSystemAnalysis loaded = get(system, dir.toString());
+				long loadedNanos = System.nanoTime() - start;
+				if (!Arrays.equals(computed.potentials, loaded.potentials) || computed.minScore != loaded.minScore)
+					throw new IllegalStateException("Loaded analysis differs from the computed one");
+				System.out.printf("%s: min score %d; computed and saved in %.0f ms, loaded in %.1f ms\n",
+						Arrays.toString(scoreTable), loaded.minScore, computedNanos / 1e6, loadedNanos / 1e6);
+			}
+			Path american = Paths.get(dir.toString(), "system" + key(systems[0].getScoreTable()) + ".bin");
+			for (int i = 0; i < MAX_CACHED_FILES + 8; i++) {
+				synchronized (analyses) {
+					analyses.clear(); // (so that every get goes to the directory)
+				}
+				get(i % 8 == 0 ? systems[0] : PokerSquaresPointSystem.getRandomPointSystem(), dir.toString());
+			}
+			long numFiles;
+			try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+				numFiles = files.count();
+			}
+			if (numFiles > MAX_CACHED_FILES || !Files.exists(american))
+				throw new IllegalStateException(numFiles + " cache files, recently used one "
+						+ (Files.exists(american) ? "kept" : "deleted"));
+			System.out.printf("%d more point systems: %d cache files kept, the recently used one included\n",
+					MAX_CACHED_FILES + 8, numFiles);
+		} finally {
+			try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+				for (Path file : (Iterable<Path>) files::iterator)
+					Files.delete(file);
+			}
+			Files.delete(dir);
+		}
+	}
+}
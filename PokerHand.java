@@ -11,6 +11,7 @@ public enum PokerHand {
 	FOUR_OF_A_KIND(7, "four of a kind"), STRAIGHT_FLUSH(8, "straight flush"), ROYAL_FLUSH(9, "royal flush");
 	
 	public static final int NUM_HANDS = PokerHand.values().length;
+	private static final PokerHand[] HANDS = PokerHand.values(); // hands indexed by classification id number
 	public int id;
 	public String name;
 	PokerHand(int id, String name) {
@@ -20,10 +21,22 @@ public enum PokerHand {
 	
 	/**
 	 * Given a Card array (possibly with null values) classifies the current Poker hand and returns the classification.
+	 * Poker Squares lines (length 5) are classified with the precomputed PokerHandTable without allocation.
 	 * @param hand - a Poker hand represented as an array of Card objects which may contain null values
 	 * @return classification of the given Poker hand
 	 */
 	public static PokerHand getPokerHand(Card[] hand) {
+		if (hand.length == PokerHandTable.LINE_SIZE)
+			return HANDS[PokerHandTable.getPokerHandId(hand)];
+		return countPokerHand(hand);
+	}
+	
+	/**
+	 * Given a Card array (possibly with null values) of any length, classifies it by counting ranks and suits.
+	 * @param hand - a Poker hand represented as an array of Card objects which may contain null values
+	 * @return classification of the given Poker hand
+	 */
+	static PokerHand countPokerHand(Card[] hand) {
 		// Compute counts
 		int[] rankCounts = new int[Card.NUM_RANKS];
 		int[] suitCounts = new int[Card.NUM_SUITS];
@@ -32,15 +45,6 @@ public enum PokerHand {
 				rankCounts[card.getRank()]++;
 				suitCounts[card.getSuit()]++;
 			}
-		
-		// Compute count of rank counts
-		int maxOfAKind = 0;
-		int[] rankCountCounts = new int[hand.length + 1];
-		for (int count : rankCounts) {
-				rankCountCounts[count]++;
-				if (count > maxOfAKind)
-					maxOfAKind = count;
-			}
 			
 		// Flush check
 		boolean hasFlush = false;
@@ -51,6 +55,29 @@ public enum PokerHand {
 				break;
 			}
 		
+		return classify(rankCounts, hasFlush);
+	}
+	
+	/**
+	 * Classifies a Poker hand given its rank counts and whether or not all of its cards share one suit.
+	 * @param rankCounts - number of cards of each rank
+	 * @param hasFlush - whether or not the hand is a complete hand of a single suit
+	 * @return classification of the described Poker hand
+	 */
+	static PokerHand classify(int[] rankCounts, boolean hasFlush) {
+		// Compute count of rank counts
+		int maxOfAKind = 0;
+		int numPairs = 0;
+		int numTriples = 0;
+		for (int count : rankCounts) {
+				if (count == 2)
+					numPairs++;
+				else if (count == 3)
+					numTriples++;
+				if (count > maxOfAKind)
+					maxOfAKind = count;
+			}
+		
 		// Straight check
 		boolean hasStraight = false;
 		boolean hasRoyal = false;
@@ -70,7 +97,7 @@ public enum PokerHand {
 		}
 		if (maxOfAKind == 4)
 			return PokerHand.FOUR_OF_A_KIND; // Four of a Kind
-		if (rankCountCounts[3] == 1 && rankCountCounts[2] == 1)
+		if (numTriples == 1 && numPairs == 1)
 			return PokerHand.FULL_HOUSE; // Full House
 		if (hasFlush)
 			return PokerHand.FLUSH; // Flush
@@ -78,9 +105,9 @@ public enum PokerHand {
 			return PokerHand.STRAIGHT; // Straight
 		if (maxOfAKind == 3)
 			return PokerHand.THREE_OF_A_KIND; // Three of a Kind
-		if (rankCountCounts[2] == 2)
+		if (numPairs == 2)
 			return PokerHand.TWO_PAIR; // Two Pair
-		if (rankCountCounts[2] == 1)
+		if (numPairs == 1)
 			return PokerHand.ONE_PAIR; // One Pair
 		return PokerHand.HIGH_CARD; // Otherwise, High Card.  This applies to empty Card arrays as well.
 	}
@@ -91,7 +118,9 @@ public enum PokerHand {
 	 * @return classification identification number of the given Poker hand
 	 */
 	public static final int getPokerHandId(Card[] hand) {
-		return getPokerHand(hand).id;
+		if (hand.length == PokerHandTable.LINE_SIZE)
+			return PokerHandTable.getPokerHandId(hand);
+		return countPokerHand(hand).id;
 	}
 
 	/* (non-Javadoc)
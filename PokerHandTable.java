@@ -0,0 +1,238 @@
+/**
+ * PokerHandTable - a table-driven classifier for 5-card Poker Squares lines (rows or columns).
+ *
+ * A line is packed into a single int with 6 bits per position: 0 for an empty position, otherwise the card id + 1.
+ * Ranks are folded through a precomputed automaton over rank multisets (at most 5 cards, at most 4 of a rank),
+ * so that classifying a line takes one transition load per card plus one final hand id load, with no allocation.
+ * Whether the line is a flush is the only thing the rank multiset cannot tell, so it is tracked with a suit bit mask.
+ *
+ * All tables are built once when the class is loaded by enumerating every rank multiset and classifying it with
+ * PokerHand.classify, so the results are identical to PokerHand.getPokerHand by construction.
+ */
+import java.util.HashMap;
+
+public final class PokerHandTable {
+
+	public static final int LINE_SIZE = PokerSquares.SIZE; // number of positions in a row or column
+	public static final int EMPTY = 0; // packed value of an empty position
+	public static final int SLOT_BITS = 6; // bits per packed position
+	public static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+
+	private static final int NUM_RANKS = Card.NUM_RANKS;
+	private static final int MAX_OF_A_RANK = Card.NUM_SUITS; // a rank can't appear more often than there are suits
+
+	static final int NUM_RANK_STATES; // number of distinct rank multisets of size 0 through LINE_SIZE
+	static final int[] RANK_NEXT; // [rankState * NUM_RANKS + rank] -> rankState after adding a card of that rank, -1 if impossible
+	static final int[] RANK_PREV; // [rankState * NUM_RANKS + rank] -> rankState after removing a card of that rank, -1 if impossible
+	static final byte[] RANK_STATE_SIZE; // number of cards in each rank multiset
+	private static final byte[] HAND_IDS; // [rankState << 1 | flush] -> Poker hand classification id number
+	static final int[] SLOT_RANK = new int[Card.NUM_CARDS + 1]; // packed slot value -> card rank
+	static final int[] SLOT_SUIT_BIT = new int[Card.NUM_CARDS + 1]; // packed slot value -> 1 << card suit (0 for empty)
+
+	static {
+		for (int cardId = 0; cardId < Card.NUM_CARDS; cardId++) {
+			SLOT_RANK[cardId + 1] = cardId % NUM_RANKS;
+			SLOT_SUIT_BIT[cardId + 1] = 1 << (cardId / NUM_RANKS);
+		}
+
+		// Enumerate all rank multisets breadth-first from the empty line. Each multiset is keyed during construction
+		// by its rank counts written as a base-(MAX_OF_A_RANK + 1) number.
+		HashMap<Long, Integer> stateIds = new HashMap<Long, Integer>();
+		long[] keys = new long[countRankStates()];
+		long[] powers = new long[NUM_RANKS];
+		powers[0] = 1;
+		for (int rank = 1; rank < NUM_RANKS; rank++)
+			powers[rank] = powers[rank - 1] * (MAX_OF_A_RANK + 1);
+		keys[0] = 0;
+		stateIds.put(0L, 0);
+		int numStates = 1;
+		int[] next = new int[keys.length * NUM_RANKS];
+		int[] prev = new int[keys.length * NUM_RANKS];
+		byte[] sizes = new byte[keys.length];
+		for (int state = 0; state < numStates; state++) {
+			long key = keys[state];
+			for (int rank = 0; rank < NUM_RANKS; rank++) {
+				int count = (int) (key / powers[rank] % (MAX_OF_A_RANK + 1));
+				next[state * NUM_RANKS + rank] = -1;
+				if (count < MAX_OF_A_RANK && sizes[state] < LINE_SIZE) {
+					long nextKey = key + powers[rank];
+					Integer nextState = stateIds.get(nextKey);
+					if (nextState == null) {
+						nextState = numStates++;
+						stateIds.put(nextKey, nextState);
+						keys[nextState] = nextKey;
+						sizes[nextState] = (byte) (sizes[state] + 1);
+					}
+					next[state * NUM_RANKS + rank] = nextState;
+				}
+				prev[state * NUM_RANKS + rank] = count > 0 ? stateIds.get(key - powers[rank]) : -1;
+			}
+		}
+
+		// Classify each multiset as a non-flush and as a flush.
+		byte[] handIds = new byte[numStates << 1];
+		int[] rankCounts = new int[NUM_RANKS];
+		for (int state = 0; state < numStates; state++) {
+			for (int rank = 0; rank < NUM_RANKS; rank++)
+				rankCounts[rank] = (int) (keys[state] / powers[rank] % (MAX_OF_A_RANK + 1));
+			handIds[state << 1] = (byte) PokerHand.classify(rankCounts, false).id;
+			handIds[state << 1 | 1] = (byte) PokerHand.classify(rankCounts, sizes[state] == LINE_SIZE).id;
+		}
+
+		NUM_RANK_STATES = numStates;
+		RANK_NEXT = next;
+		RANK_PREV = prev;
+		RANK_STATE_SIZE = sizes;
+		HAND_IDS = handIds;
+	}
+
+	private PokerHandTable() {
+	}
+
+	/**
+	 * Count the rank multisets of size 0 through LINE_SIZE with no more than MAX_OF_A_RANK cards of a rank.
+	 * @return number of rank multisets
+	 */
+	private static int countRankStates() {
+		// ways[n] = number of multisets of size n over the ranks considered so far
+		long[] ways = new long[LINE_SIZE + 1];
+		ways[0] = 1;
+		for (int rank = 0; rank < NUM_RANKS; rank++)
+			for (int n = LINE_SIZE; n > 0; n--)
+				for (int count = 1; count <= Math.min(n, MAX_OF_A_RANK); count++)
+					ways[n] += ways[n - count];
+		long total = 0;
+		for (long w : ways)
+			total += w;
+		return (int) total;
+	}
+
+	/**
+	 * Return the Poker hand classification id number of a rank multiset.
+	 * @param rankState rank multiset state
+	 * @param flush whether or not the (complete) line is all of one suit
+	 * @return Poker hand classification id number
+	 */
+	static int getHandId(int rankState, boolean flush) {
+		return HAND_IDS[rankState << 1 | (flush ? 1 : 0)];
+	}
+
+	/**
+	 * Pack a line of cards into an int.
+	 * @param hand a line of LINE_SIZE Card objects which may contain null values
+	 * @return packed line
+	 */
+	public static int pack(Card[] hand) {
+		int packed = 0;
+		for (int i = LINE_SIZE - 1; i >= 0; i--)
+			packed = packed << SLOT_BITS | (hand[i] == null ? EMPTY : hand[i].getCardId() + 1);
+		return packed;
+	}
+
+	/**
+	 * Classify a packed line.
+	 * @param packed line packed as by pack(Card[])
+	 * @return Poker hand classification id number of the line
+	 */
+	public static int getPokerHandId(int packed) {
+		int rankState = 0;
+		int suits = 0;
+		for (int i = 0; i < LINE_SIZE; i++, packed >>>= SLOT_BITS) {
+			int slot = packed & SLOT_MASK;
+			if (slot != EMPTY) {
+				rankState = RANK_NEXT[rankState * NUM_RANKS + SLOT_RANK[slot]];
+				suits |= SLOT_SUIT_BIT[slot];
+			}
+		}
+		return HAND_IDS[rankState << 1 | ((suits & (suits - 1)) == 0 ? 1 : 0)];
+	}
+
+	/**
+	 * Classify a line of cards.
+	 * @param hand a line of LINE_SIZE Card objects which may contain null values
+	 * @return Poker hand classification id number of the line
+	 */
+	public static int getPokerHandId(Card[] hand) {
+		return getPokerHandId(pack(hand));
+	}
+
+	/**
+	 * Classify a row of a grid without copying it.
+	 * @param grid 2D Card array representing play grid
+	 * @param row row index
+	 * @return Poker hand classification id number of the row
+	 */
+	public static int getRowHandId(Card[][] grid, int row) {
+		int rankState = 0;
+		int suits = 0;
+		for (int col = 0; col < LINE_SIZE; col++) {
+			Card card = grid[row][col];
+			if (card != null) {
+				rankState = RANK_NEXT[rankState * NUM_RANKS + card.getRank()];
+				suits |= 1 << card.getSuit();
+			}
+		}
+		return HAND_IDS[rankState << 1 | ((suits & (suits - 1)) == 0 ? 1 : 0)];
+	}
+
+	/**
+	 * Classify a column of a grid without copying it.
+	 * @param grid 2D Card array representing play grid
+	 * @param col column index
+	 * @return Poker hand classification id number of the column
+	 */
+	public static int getColHandId(Card[][] grid, int col) {
+		int rankState = 0;
+		int suits = 0;
+		for (int row = 0; row < LINE_SIZE; row++) {
+			Card card = grid[row][col];
+			if (card != null) {
+				rankState = RANK_NEXT[rankState * NUM_RANKS + card.getRank()];
+				suits |= 1 << card.getSuit();
+			}
+		}
+		return HAND_IDS[rankState << 1 | ((suits & (suits - 1)) == 0 ? 1 : 0)];
+	}
+
+	/**
+	 * Check the table classifier against rank and suit counting on every complete line and on random partial lines.
+	 * @param args (not used)
+	 */
+	public static void main(String[] args) {
+		System.out.println(NUM_RANK_STATES + " rank states");
+		Card[] deck = Card.getAllCards();
+		Card[] hand = new Card[LINE_SIZE];
+		int[] counts = new int[PokerHand.NUM_HANDS];
+		for (int a = 0; a < Card.NUM_CARDS; a++)
+			for (int b = a + 1; b < Card.NUM_CARDS; b++)
+				for (int c = b + 1; c < Card.NUM_CARDS; c++)
+					for (int d = c + 1; d < Card.NUM_CARDS; d++)
+						for (int e = d + 1; e < Card.NUM_CARDS; e++) {
+							hand[0] = deck[a]; hand[1] = deck[b]; hand[2] = deck[c]; hand[3] = deck[d]; hand[4] = deck[e];
+							counts[check(hand)]++;
+						}
+		for (PokerHand pokerHand : PokerHand.values())
+			System.out.printf("%-15s %7d\n", pokerHand, counts[pokerHand.id]);
+
+		java.util.Random random = new java.util.Random(0);
+		for (int trial = 0; trial < 1000000; trial++) {
+			for (int i = 0; i < LINE_SIZE; i++)
+				hand[i] = random.nextBoolean() ? null : deck[random.nextInt(Card.NUM_CARDS)];
+			boolean valid = true; // skip lines with duplicate cards
+			for (int i = 0; i < LINE_SIZE; i++)
+				for (int j = i + 1; j < LINE_SIZE; j++)
+					valid &= hand[i] == null || hand[i] != hand[j];
+			if (valid)
+				check(hand);
+		}
+		System.out.println("Partial lines OK");
+	}
+
+	private static int check(Card[] hand) {
+		int expected = PokerHand.countPokerHand(hand).id;
+		int actual = getPokerHandId(hand);
+		if (expected != actual)
+			throw new IllegalStateException(java.util.Arrays.toString(hand) + ": expected " + expected + ", got " + actual);
+		return actual;
+	}
+}
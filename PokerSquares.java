@@ -1,9 +1,19 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 
 /* A version of the solitaire game "Poker Squares" with variable point systems.
  * Author: Todd W. Neller
@@ -53,6 +63,9 @@ public class PokerSquares {
 	private boolean verbose = true; // whether or not to print move-by-move transcript of the game
 	private Card[][] grid = new Card[SIZE][SIZE]; // current game grid
 	private Random random = new Random(); // current game random number generator
+	private long seed; // seed of the current game (for game records)
+	private GameRecordWriter recordWriter; // writer of the game records, or null
+	private final GameRecord record = new GameRecord(); // record of the current game
 	private int minPoints; // minimum possible score for current point system.
 
 	/**
@@ -85,10 +98,38 @@ public class PokerSquares {
 	}
 
 	/**
-	 * Play a game of Poker Squares and return the final game score.
+	 * Record every game played from now on with the given writer.
+	 * @param recordWriter game record writer, or null to stop recording
+	 */
+	public void setGameRecordWriter(GameRecordWriter recordWriter) {
+		this.recordWriter = recordWriter;
+	}
+
+	/**
+	 * Play a game of Poker Squares and return the final game score, recording the game if there is a game record
+	 * writer.
 	 * @return final game score
+	 * @throws UncheckedIOException if the game cannot be recorded
 	 */
 	public int play() {
+		record.start(GameRecord.systemId(system), seed);
+		int score = playGame();
+		if (recordWriter != null) {
+			record.score = score;
+			try {
+				recordWriter.write(record, player);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Play a game of Poker Squares, keeping record of the plays, and return the final game score.
+	 * @return final game score
+	 */
+	private int playGame() {
 		try {
 			player.init();
 
@@ -120,13 +161,16 @@ public class PokerSquares {
 					return minPoints;
 				}
 				grid[play[0]][play[1]] = card;
+				record.setPlay(cardsPlaced, card.getCardId(), play[0] * SIZE + play[1]);
 				cardsPlaced++;
 				if (verbose) {
 					system.printGrid(grid);
 					System.out.println();
 				}
 			}
-			return system.getScore(grid);
+			int score = system.getScore(grid);
+			record.setResult(grid, score);
+			return score;
 		}
 		catch (Exception e) {
 			System.err.println("Exception thrown by " + player.getName() + ":");
@@ -144,7 +188,23 @@ public class PokerSquares {
 	 * @return integer array of game scores
 	 */
 	public int[] playSequence(int numGames, long startSeed, boolean verbose) {
+		return playSequence(numGames, startSeed, verbose, null);
+	}
+
+	/**
+	 * Play a sequence of games, collecting and reporting statistics, and write the search statistics of each game
+	 * as CSV (see SearchStats.writeCsv) if the player reports them.
+	 * @param numGames number of games to play
+	 * @param startSeed seed of first game. Successive games use successive seeds
+	 * @param verbose whether or not to provide verbose output of game play
+	 * @param statsCsv stream to write the search statistics to, or null
+	 * @return integer array of game scores
+	 */
+	public int[] playSequence(int numGames, long startSeed, boolean verbose, PrintStream statsCsv) {
 		this.verbose = verbose;
+		SearchStats stats = player instanceof SearchStatsReporter ? ((SearchStatsReporter) player).getSearchStats() : null;
+		if (statsCsv != null && stats != null)
+			statsCsv.println(SearchStats.CSV_HEADER);
 		if (verbose) {
 			System.out.printf("%d games starting at seed %d\nPoint system:\n%s\n", numGames, startSeed, system);
 		}
@@ -155,6 +215,8 @@ public class PokerSquares {
 			setSeed(startSeed + i);
 			int score = play();
 			scores[i] = score;
+			if (statsCsv != null && stats != null)
+				stats.writeCsv(statsCsv, startSeed + i, score);
 			scoreMean += score;
 			if (scores[i] < min) min = scores[i];
 			if (scores[i] > max) max = scores[i];
@@ -191,6 +253,9 @@ public class PokerSquares {
 			ArrayList<PokerSquaresPointSystem> systems,
 			int gamesPerSystem, long startSeed) {
 		double[] tournamentScores = new double[players.size()];
+		String[] names = new String[players.size()];
+		for (int i = 0; i < players.size(); i++)
+			names[i] = players.get(i).getName();
 		for (PokerSquaresPointSystem system : systems) { // for each point system
 			System.out.println("Point System:\n" + system);
 			int[] totalScores = new int[players.size()];
@@ -202,31 +267,144 @@ public class PokerSquares {
 					totalScores[i] += score;
 				System.out.printf("Player \"%s\" total score: %d\n", player.getName(), totalScores[i]);
 			}
-			int maxTotal = Integer.MIN_VALUE;
-			int minTotal = Integer.MAX_VALUE;
-			for (int totalScore : totalScores) {
-				if (totalScore > maxTotal)
-					maxTotal = totalScore;
-				if (totalScore < minTotal)
-					minTotal = totalScore;				
+			addNormalizedScores(names, totalScores, tournamentScores);
+		}
+		printTournamentScores(names, tournamentScores);
+
+		return tournamentScores;
+	}
+
+	/**
+	 * Hold a Poker Squares tournament as playTournament does, but play its independent games in parallel, each with
+	 * a new player from the given factories. The games use the same deals (seeds) as the sequential tournament and
+	 * totals are aggregated per player and point system, so the normalized scores are computed exactly as there.
+	 * To keep per-game time budgets fair when games share the machine, a game of player i only starts when
+	 * threadsPerPlayer[i] of the numCores cores are free, so at most numCores / threadsPerPlayer[i] games of a
+	 * player run at the same time. numCores must be the number of physical cores: Java only reports logical
+	 * processors (Runtime.availableProcessors counts each hardware thread of a simultaneous multithreading core), and
+	 * two searches sharing one physical core would each get about half the computation of a full core.
+	 * Player names are read from the first game's player of each factory.
+	 * @param playerFactories factories of the Poker Squares players taking part in the tournament (one player per game)
+	 * @param systems Poker Squares point systems used to evaluate players in the tournament
+	 * @param gamesPerSystem the number of games that will be played by each player with each point system
+	 * @param startSeed the start seed for the pseudorandom number generator that generates card deals
+	 * @param threadsPerPlayer number of threads each player searches with
+	 * @param numCores number of physical cores to share among the games
+	 * @return the sum of the tournament scores for each of the given players
+	 */
+	public static double[] playTournament(
+			List<Supplier<PokerSquaresPlayer>> playerFactories,
+			List<PokerSquaresPointSystem> systems,
+			int gamesPerSystem, long startSeed, int[] threadsPerPlayer, int numCores) {
+		return playTournament(playerFactories, systems, gamesPerSystem, startSeed, threadsPerPlayer, numCores, null);
+	}
+
+	/**
+	 * Hold a parallel Poker Squares tournament (see above) and record every game with the given writer, in the
+	 * order the games finish.
+	 * @param playerFactories factories of the Poker Squares players taking part in the tournament (one player per game)
+	 * @param systems Poker Squares point systems used to evaluate players in the tournament
+	 * @param gamesPerSystem the number of games that will be played by each player with each point system
+	 * @param startSeed the start seed for the pseudorandom number generator that generates card deals
+	 * @param threadsPerPlayer number of threads each player searches with
+	 * @param numCores number of physical cores to share among the games
+	 * @param recordWriter game record writer, or null
+	 * @return the sum of the tournament scores for each of the given players
+	 */
+	public static double[] playTournament(
+			List<Supplier<PokerSquaresPlayer>> playerFactories,
+			List<PokerSquaresPointSystem> systems,
+			int gamesPerSystem, long startSeed, int[] threadsPerPlayer, int numCores,
+			GameRecordWriter recordWriter) {
+		int numPlayers = playerFactories.size();
+		String[] names = new String[numPlayers]; // set by the first game of each player (read after it is done)
+		ExecutorService executor = Executors.newFixedThreadPool(numCores);
+		Semaphore cores = new Semaphore(numCores, true); // fair: a game needing many cores is not starved by small ones
+		List<Future<Integer>> games = new ArrayList<Future<Integer>>();
+		for (PokerSquaresPointSystem system : systems) {
+			for (int i = 0; i < numPlayers; i++) {
+				Supplier<PokerSquaresPlayer> factory = playerFactories.get(i);
+				int player = i;
+				int permits = Math.max(1, Math.min(numCores, threadsPerPlayer[i]));
+				for (int g = 0; g < gamesPerSystem; g++) {
+					long seed = startSeed + g; // the seed playSequence gives game g
+					boolean naming = games.size() < numPlayers * gamesPerSystem && g == 0; // first game of the player
+					games.add(executor.submit(() -> {
+						cores.acquire(permits);
+						try {
+							PokerSquaresPlayer gamePlayer = factory.get();
+							if (naming)
+								names[player] = gamePlayer.getName();
+							PokerSquares game = new PokerSquares(gamePlayer, system);
+							game.verbose = false;
+							game.setSeed(seed);
+							game.setGameRecordWriter(recordWriter);
+							return game.play();
+						}
+						finally {
+							cores.release(permits);
+						}
+					}));
+				}
 			}
-			for (int i = 0; i < players.size(); i++) { // for each player
-				double normalizedTotal = (double) (totalScores[i] - minTotal) / (maxTotal - minTotal);
-				System.out.println("Player \"" + players.get(i).getName() + "\" normalized score: " + normalizedTotal);
-				tournamentScores[i] += normalizedTotal;
+		}
+
+		double[] tournamentScores = new double[numPlayers];
+		try {
+			int next = 0;
+			for (PokerSquaresPointSystem system : systems) { // for each point system
+				System.out.println("Point System:\n" + system);
+				int[] totalScores = new int[numPlayers];
+				for (int i = 0; i < numPlayers; i++) { // for each player
+					for (int g = 0; g < gamesPerSystem; g++)
+						totalScores[i] += games.get(next++).get();
+					System.out.printf("Player \"%s\" total score: %d\n", names[i], totalScores[i]);
+				}
+				addNormalizedScores(names, totalScores, tournamentScores);
 			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdownNow();
 		}
-		double max = Double.NEGATIVE_INFINITY;
-		for (double score : tournamentScores) {
-			if (score > max)
-				max = score;
+		printTournamentScores(names, tournamentScores);
+
+		return tournamentScores;
+	}
+
+	/**
+	 * Linearly scale the total scores of one point system so that the maximum becomes 1.0 and the minimum 0.0,
+	 * print them and add them to the tournament scores.
+	 * @param names player names
+	 * @param totalScores total game score of each player under the point system
+	 * @param tournamentScores tournament score of each player so far
+	 */
+	private static void addNormalizedScores(String[] names, int[] totalScores, double[] tournamentScores) {
+		int maxTotal = Integer.MIN_VALUE;
+		int minTotal = Integer.MAX_VALUE;
+		for (int totalScore : totalScores) {
+			if (totalScore > maxTotal)
+				maxTotal = totalScore;
+			if (totalScore < minTotal)
+				minTotal = totalScore;				
 		}
-		System.out.printf("%20s %s\n", "Player", "Tournament Score");
-		for (int i = 0; i < players.size(); i++) { // for each player
-			System.out.printf("%20s %f\n", players.get(i).getName(), tournamentScores[i]);
+		for (int i = 0; i < names.length; i++) { // for each player
+			double normalizedTotal = (double) (totalScores[i] - minTotal) / (maxTotal - minTotal);
+			System.out.println("Player \"" + names[i] + "\" normalized score: " + normalizedTotal);
+			tournamentScores[i] += normalizedTotal;
 		}
+	}
 
-		return tournamentScores;
+	/**
+	 * Print the tournament score of each player.
+	 * @param names player names
+	 * @param tournamentScores tournament score of each player
+	 */
+	private static void printTournamentScores(String[] names, double[] tournamentScores) {
+		System.out.printf("%20s %s\n", "Player", "Tournament Score");
+		for (int i = 0; i < names.length; i++) { // for each player
+			System.out.printf("%20s %f\n", names[i], tournamentScores[i]);
+		}
 	}
 
 	/**
@@ -234,6 +412,7 @@ public class PokerSquares {
 	 * @param seed pseudorandom number generator seed
 	 */
 	private void setSeed(long seed) {
+		this.seed = seed;
 		random.setSeed(seed);
 	}
 
@@ -275,5 +454,11 @@ public class PokerSquares {
 
 
                 PokerSquares.playTournament(players, systems, 20, 0L);  // play 20 games for each player under each scoring system
+
+                // The same tournament with its games played in parallel (a new player per game, single-threaded players)
+//                List<Supplier<PokerSquaresPlayer>> factories = new ArrayList<Supplier<PokerSquaresPlayer>>();
+//                factories.add(RandomPlayer::new);
+//                factories.add(FlushPlayer::new);
+//                PokerSquares.playTournament(factories, systems, 20, 0L, new int[] {1, 1}, 4); // on 4 physical cores
 	}
 }
@@ -11,6 +11,7 @@ public class PokerSquaresPointSystem {
 	private static final int MIN_HAND_SCORE = -128; // maximum permissible hand score
 	private static final int SIZE = PokerSquares.SIZE; // Poker Squares number of rows/columns
 	private final int[] scores; // scores for each corresponding hand classification id number
+	private int[] lineScores; // scores indexed by LineState, computed on first use
 	
 	/**
 	 * Create a point system given an array of hand scores. The score at index n corresponds to the score for 
@@ -59,16 +60,27 @@ public class PokerSquaresPointSystem {
 		return scores.clone();
 	}
 	
+	/**
+	 * Return an array of line scores indexed by LineState for incremental scoring. The array is computed on first
+	 * use and shared afterwards, so it must not be modified.
+	 * @return an array of line scores indexed by LineState
+	 */
+	public int[] getLineScores() {
+		int[] lineScores = this.lineScores;
+		if (lineScores == null)
+			this.lineScores = lineScores = LineState.computeLineScores(this); // racing threads compute identical tables
+		return lineScores;
+	}
+	
 	/**
 	 * Get the score of the given Card grid.
 	 * @param grid Card grid
 	 * @return score of given Card grid
 	 */
 	public int getScore(Card[][] grid) {
-		int[] handScores = getHandScores(grid);
 		int totalScore = 0;
-		for (int handScore : handScores)
-			totalScore += handScore;
+		for (int i = 0; i < SIZE; i++)
+			totalScore += scores[PokerHandTable.getRowHandId(grid, i)] + scores[PokerHandTable.getColHandId(grid, i)];
 		return totalScore;
 	}
 	
@@ -79,18 +91,10 @@ public class PokerSquaresPointSystem {
 	 */
 	public int[] getHandScores(Card[][] grid) {
 		int[] handScores = new int[2 * SIZE];
-		for (int row = 0; row < SIZE; row++) {
-			Card[] hand = new Card[SIZE];
-			for (int col = 0; col < SIZE; col++)
-				hand[col] = grid[row][col];
-			handScores[row] = getHandScore(hand);
-		}
-		for (int col = 0; col < SIZE; col++) {
-			Card[] hand = new Card[SIZE];
-			for (int row = 0; row < SIZE; row++)
-				hand[row] = grid[row][col];
-			handScores[SIZE + col] = getHandScore(hand);
-		}
+		for (int row = 0; row < SIZE; row++)
+			handScores[row] = scores[PokerHandTable.getRowHandId(grid, row)];
+		for (int col = 0; col < SIZE; col++)
+			handScores[SIZE + col] = scores[PokerHandTable.getColHandId(grid, col)];
 		return handScores;
 	}
 	
@@ -0,0 +1,347 @@
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * PositionKey - 64-bit transposition key of a position, the same for positions that are equal up to a permutation
+ * of the rows, a permutation of the columns, a transpose of the grid and a relabeling of the suits.
+ *
+ * Every point system scores the ten lines alike and in no particular order, so the future of a position depends only
+ * on the LineState of each line, on which row/column pairs are still empty, and on the cards left in the deck
+ * (those not on the board). The key is built from exactly these:
+ * - each line gets a mixed hash of its LineState, with the suit of a single-suited line relabeled canonically
+ *   (see SuitIsomorphism);
+ * - each line's term mixes its own hash with the sum of the hashes of the crossing lines at its empty cells, so the
+ *   terms tell lines apart by what they can still become and which lines they share empty cells with;
+ * - the terms of the ten lines are summed with no line index or row/column tag, which makes the sum invariant under
+ *   row permutation, column permutation and transpose;
+ * - the cards on the board are added as the SuitIsomorphism card set hash, i.e. the rank masks of the suits up to
+ *   a suit permutation.
+ * Positions equal under the grid symmetries always get the same key, and so do positions equal under a suit
+ * permutation except in the tie cases described in SuitIsomorphism; different positions get the same key only by a
+ * hash collision, or in rare cases where one round of refinement (the crossing-line sums) does not tell their
+ * empty-cell patterns apart. A key is therefore no proof of equivalence: a table that needs exact values (see
+ * EndgameSolver) must check its entries by other means. Lines that differ only in cards of the same effect (e.g. the
+ * suits of a line that is already mixed) share a state, and hence their positions share a key when the card sets
+ * are equal.
+ *
+ * The suit state is kept incrementally by the caller (a SuitIsomorphism updated as cards are placed and taken back).
+ * setPosition computes the line part of a position in twenty mixes and keeps the line hashes, crossing sums and
+ * terms, so that the key of each placement from that position (getChild) only recomputes the terms of the lines the
+ * placement changes: its row and column and the lines crossing them at empty cells. A placement that changes the
+ * suit labels (as the first cards of a suit can) also changes the hashes of the lines of one suit, and recomputes
+ * the crossing sums. A PositionKey holds the position set last
+ * and is used by one thread only.
+ */
+public class PositionKey {
+
+	private static final int SIZE = LineBoard.SIZE;
+	private static final long STATE_SALT = 0x9E3779B97F4A7C15L; // so that state 0 does not hash to 0
+	private static final long PAIR_MULTIPLIER = 0xD6E8FEB86659FD93L; // odd, to weigh the crossing-line sum apart from the line's own hash
+
+	private final int[] rowStates = new int[SIZE]; // LineState of each row of the position set
+	private final int[] colStates = new int[SIZE]; // LineState of each column
+	private final long[] rowHashes = new long[SIZE]; // mixed LineState of each row
+	private final long[] colHashes = new long[SIZE]; // mixed LineState of each column
+	private final long[] rowCrossings = new long[SIZE]; // sum of the hashes of the columns at the empty cells of each row
+	private final long[] colCrossings = new long[SIZE]; // sum of the hashes of the rows at the empty cells of each column
+	private final long[] rowTerms = new long[SIZE]; // term of each row in the key
+	private final long[] colTerms = new long[SIZE]; // term of each column in the key
+	private final long[] childRowHashes = new long[SIZE]; // hashes of the rows after a placement that changes the suit labels
+	private final long[] childColHashes = new long[SIZE]; // same for the columns
+	private final SuitIsomorphism boardSuits = new SuitIsomorphism(); // suit state for get(LineBoard)
+	private final long[] placementKeys = new long[LineBoard.NUM_POS]; // keys of the distinct placements found by getDistinctPlacements
+	private SuitIsomorphism suits; // suit state of the position set
+	private int emptyMask; // empty cells of the position set
+	private long key; // key of the position set
+
+	/**
+	 * Return the empty cells of a board as a bit mask.
+	 * @param board board
+	 * @return mask with bit cell (row-major index) set for each empty cell
+	 */
+	public static int emptyMask(LineBoard board) {
+		int mask = 0;
+		for (int cell = 0; cell < LineBoard.NUM_POS; cell++)
+			if (board.isEmpty(cell))
+				mask |= 1 << cell;
+		return mask;
+	}
+
+	/**
+	 * Return the key of the board's position (and set it as the position of getChild).
+	 * @param board board
+	 * @return position key
+	 */
+	public long get(LineBoard board) {
+		boardSuits.setBoard(board);
+		return get(board, emptyMask(board), boardSuits);
+	}
+
+	/**
+	 * Return the key of the board's position, given its empty cells and suit state (and set it as the position of
+	 * getChild).
+	 * @param board board
+	 * @param emptyMask empty cells of the board (see emptyMask)
+	 * @param suits suit state of the cards on the board (read until the next position is set)
+	 * @return position key
+	 */
+	public long get(LineBoard board, int emptyMask, SuitIsomorphism suits) {
+		setPosition(board, emptyMask, suits);
+		return key;
+	}
+
+	/**
+	 * Set the position whose placements getChild computes the keys of.
+	 * @param board board
+	 * @param emptyMask empty cells of the board (see emptyMask)
+	 * @param suits suit state of the cards on the board (read until the next position is set)
+	 */
+	public void setPosition(LineBoard board, int emptyMask, SuitIsomorphism suits) {
+		this.emptyMask = emptyMask;
+		this.suits = suits;
+		for (int i = 0; i < SIZE; i++) {
+			rowStates[i] = board.getRowState(i);
+			colStates[i] = board.getColState(i);
+			rowHashes[i] = lineHash(rowStates[i]);
+			colHashes[i] = lineHash(colStates[i]);
+		}
+		long sum = 0;
+		for (int i = 0; i < SIZE; i++) {
+			long rowSum = 0;
+			long colSum = 0;
+			for (int j = 0; j < SIZE; j++) {
+				rowSum += colHashes[j] & -(long) (emptyMask >>> (i * SIZE + j) & 1);
+				colSum += rowHashes[j] & -(long) (emptyMask >>> (j * SIZE + i) & 1);
+			}
+			rowCrossings[i] = rowSum;
+			colCrossings[i] = colSum;
+			rowTerms[i] = mix(rowHashes[i] + rowSum * PAIR_MULTIPLIER);
+			colTerms[i] = mix(colHashes[i] + colSum * PAIR_MULTIPLIER);
+			sum += rowTerms[i] + colTerms[i];
+		}
+		key = sum ^ suits.getCardsKey();
+	}
+
+	/**
+	 * Collect one empty cell of the board per class of equivalent placements of a card: placements whose positions
+	 * have the same key (e.g. any cell of an empty row and column pair, or cells symmetric given the partial board)
+	 * lead to the same future, so a search only needs one of them. The cell kept for a class is its first in
+	 * row-major order, so the same board and card always give the same cells. The board's position is set as the
+	 * position of getChild.
+	 * @param board board
+	 * @param cardId card to place (not on the board)
+	 * @param cells receives the cells, in increasing order (length at least the number of empty cells)
+	 * @return number of cells
+	 */
+	public int getDistinctPlacements(LineBoard board, int cardId, int[] cells) {
+		get(board);
+		int count = 0;
+		for (int empty = emptyMask; empty != 0; empty &= empty - 1) {
+			int cell = Integer.numberOfTrailingZeros(empty);
+			long childKey = getChild(cell, cardId);
+			int i = 0;
+			while (i < count && placementKeys[i] != childKey)
+				i++;
+			if (i == count) {
+				placementKeys[count] = childKey;
+				cells[count++] = cell;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Return the key of the position reached by placing a card in an empty cell of the position set last, without
+	 * making the placement.
+	 * @param cell empty cell (row-major index)
+	 * @param cardId card to place (not on the board)
+	 * @return key of the position after the placement
+	 */
+	public long getChild(int cell, int cardId) {
+		int row = cell / SIZE;
+		int col = cell % SIZE;
+		int childEmpty = emptyMask & ~(1 << cell);
+		if (!suits.keepsLabels(cardId))
+			return getRelabeledChild(row, col, childEmpty, cardId);
+		long rowHash = lineHash(LineState.place(rowStates[row], cardId));
+		long colHash = lineHash(LineState.place(colStates[col], cardId));
+		long sum = key ^ suits.getCardsKey();
+
+		/* the row and column of the cell: new hash, and the cell leaves their crossings */
+		sum += mix(rowHash + (rowCrossings[row] - colHashes[col]) * PAIR_MULTIPLIER) - rowTerms[row];
+		sum += mix(colHash + (colCrossings[col] - rowHashes[row]) * PAIR_MULTIPLIER) - colTerms[col];
+		/* the rows crossing the column at empty cells, and the columns crossing the row, see a new hash */
+		long colChange = colHash - colHashes[col];
+		long rowChange = rowHash - rowHashes[row];
+		for (int i = 0; i < SIZE; i++) {
+			if ((childEmpty & 1 << (i * SIZE + col)) != 0)
+				sum += mix(rowHashes[i] + (rowCrossings[i] + colChange) * PAIR_MULTIPLIER) - rowTerms[i];
+			if ((childEmpty & 1 << (row * SIZE + i)) != 0)
+				sum += mix(colHashes[i] + (colCrossings[i] + rowChange) * PAIR_MULTIPLIER) - colTerms[i];
+		}
+		return sum ^ suits.getCardsKeyWith(cardId);
+	}
+
+	/**
+	 * Return the key of a placement that changes the suit labels: the lines of one suit are hashed again too, and the
+	 * terms whose line hash or crossing sum changes are mixed again.
+	 */
+	private long getRelabeledChild(int row, int col, int childEmpty, int cardId) {
+		long childCardsKey = suits.getCardsKeyWith(cardId);
+		suits.place(cardId);
+		for (int i = 0; i < SIZE; i++) {
+			int rowState = i == row ? LineState.place(rowStates[i], cardId) : rowStates[i];
+			int colState = i == col ? LineState.place(colStates[i], cardId) : colStates[i];
+			childRowHashes[i] = i == row || isSingleSuit(rowState) ? lineHash(rowState) : rowHashes[i];
+			childColHashes[i] = i == col || isSingleSuit(colState) ? lineHash(colState) : colHashes[i];
+		}
+		suits.remove(cardId);
+		long sum = key ^ suits.getCardsKey();
+		for (int i = 0; i < SIZE; i++) {
+			long rowSum = 0;
+			long colSum = 0;
+			for (int j = 0; j < SIZE; j++) {
+				rowSum += childColHashes[j] & -(long) (childEmpty >>> (i * SIZE + j) & 1);
+				colSum += childRowHashes[j] & -(long) (childEmpty >>> (j * SIZE + i) & 1);
+			}
+			if (childRowHashes[i] != rowHashes[i] || rowSum != rowCrossings[i])
+				sum += mix(childRowHashes[i] + rowSum * PAIR_MULTIPLIER) - rowTerms[i];
+			if (childColHashes[i] != colHashes[i] || colSum != colCrossings[i])
+				sum += mix(childColHashes[i] + colSum * PAIR_MULTIPLIER) - colTerms[i];
+		}
+		return sum ^ childCardsKey;
+	}
+
+	/**
+	 * Return whether a line state has cards of one suit only.
+	 */
+	private static boolean isSingleSuit(int state) {
+		int suitState = state & LineState.SUIT_MASK;
+		return suitState != LineState.EMPTY_SUITS && suitState != LineState.MIXED_SUITS;
+	}
+
+	/**
+	 * Return the hash of a line state with canonical suit labels.
+	 */
+	private long lineHash(int state) {
+		return mix(suits.canonicalState(state) ^ STATE_SALT);
+	}
+
+	/**
+	 * Finalizer of MurmurHash3: spread the bits of a value over a 64-bit hash.
+	 * @param x value
+	 * @return hash
+	 */
+	static long mix(long x) {
+		x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+		x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return x ^ (x >>> 33);
+	}
+
+	/**
+	 * Check that random positions get the same key after random row and column permutations, transposes and suit
+	 * permutations (the latter except in the tie cases of SuitIsomorphism, which are counted), and count the distinct
+	 * keys of the placements of a second card on a board with one card and the distinct placements of the first cards
+	 * of a deal.
+	 * @param args (not used)
+	 */
+	public static void main(String[] args) {
+		PokerSquaresPointSystem system = PokerSquaresPointSystem.getAmericanPointSystem();
+		SplittableRandom random = new SplittableRandom(1);
+		PositionKey positionKey = new PositionKey();
+		LineBoard board = new LineBoard(system);
+		LineBoard image = new LineBoard(system);
+		int[] deck = new int[Card.NUM_CARDS];
+		int[] rows = new int[SIZE];
+		int[] cols = new int[SIZE];
+		int[] suitMap = new int[Card.NUM_SUITS];
+		int numPositions = 100000;
+		int numTies = 0;
+		for (int p = 0; p < numPositions; p++) {
+			for (int i = 0; i < Card.NUM_CARDS; i++)
+				deck[i] = i;
+			shuffle(deck, random);
+			board.clear();
+			int numCards = random.nextInt(LineBoard.NUM_POS + 1);
+			int[] cells = new int[LineBoard.NUM_POS];
+			for (int i = 0; i < cells.length; i++)
+				cells[i] = i;
+			shuffle(cells, random);
+			for (int i = 0; i < numCards; i++)
+				board.make(cells[i], deck[i]);
+			for (int i = 0; i < SIZE; i++)
+				rows[i] = cols[i] = i;
+			shuffle(rows, random);
+			shuffle(cols, random);
+			for (int i = 0; i < Card.NUM_SUITS; i++)
+				suitMap[i] = i;
+			shuffle(suitMap, random);
+			boolean transpose = random.nextBoolean();
+			image.clear();
+			int[] rankMasks = new int[Card.NUM_SUITS];
+			for (int cell = 0; cell < LineBoard.NUM_POS; cell++) {
+				if (!board.isEmpty(cell)) {
+					int row = rows[cell / SIZE];
+					int col = cols[cell % SIZE];
+					int cardId = board.getCardId(cell);
+					image.make(transpose ? col * SIZE + row : row * SIZE + col,
+							suitMap[cardId / Card.NUM_RANKS] * Card.NUM_RANKS + cardId % Card.NUM_RANKS);
+					rankMasks[cardId / Card.NUM_RANKS] |= 1 << cardId % Card.NUM_RANKS;
+				}
+			}
+			boolean tie = false; // two suits with the same ranks on the board
+			for (int i = 0; i < Card.NUM_SUITS; i++)
+				for (int j = 0; j < i; j++)
+					tie |= rankMasks[i] != 0 && rankMasks[i] == rankMasks[j];
+			if (board.getScore() != image.getScore())
+				throw new IllegalStateException("Symmetric positions have different scores");
+			if (positionKey.get(board) != positionKey.get(image)) {
+				if (!tie)
+					throw new IllegalStateException("Symmetric positions have different keys");
+				numTies++;
+			}
+			if (numCards < LineBoard.NUM_POS) {
+				int cell = cells[numCards];
+				SuitIsomorphism suits = new SuitIsomorphism();
+				suits.setBoard(board);
+				positionKey.setPosition(board, emptyMask(board), suits);
+				long child = positionKey.getChild(cell, deck[numCards]);
+				board.make(cell, deck[numCards]);
+				if (child != positionKey.get(board))
+					throw new IllegalStateException("Child key differs from the key after the placement");
+			}
+		}
+		System.out.println(numPositions + " random positions: keys invariant under row/column permutation, transpose"
+				+ " and suit permutation (" + numTies + " images with suits of equal ranks keyed apart)");
+
+		board.clear();
+		board.make(0, 0);
+		Set<Long> keys = new HashSet<Long>();
+		positionKey.get(board);
+		for (int cell = 1; cell < LineBoard.NUM_POS; cell++)
+			for (int cardId = 1; cardId < Card.NUM_CARDS; cardId++)
+				keys.add(positionKey.getChild(cell, cardId));
+		System.out.println(Card.getCard(0) + " in the corner, each other card placed in each of the 24 empty cells: "
+				+ keys.size() + " distinct positions out of " + 24 * (Card.NUM_CARDS - 1));
+
+		board.clear();
+		int[] cells = new int[LineBoard.NUM_POS];
+		System.out.print("Distinct placements of the first cards of a random deal (played in the first class):");
+		for (int i = 0; i < SIZE; i++) {
+			int count = positionKey.getDistinctPlacements(board, deck[i], cells);
+			System.out.print(" " + count + "/" + (LineBoard.NUM_POS - i));
+			board.make(cells[0], deck[i]);
+		}
+		System.out.println();
+	}
+
+	private static void shuffle(int[] values, SplittableRandom random) {
+		for (int i = values.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = values[i];
+			values[i] = values[j];
+			values[j] = tmp;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 
 /**
  * RandomMCPlayer - a simple Monte Carlo implementation of the player interface for PokerSquares.
@@ -14,12 +15,14 @@ import java.util.Random;
  * Author: Todd W. Neller
  * Modifications by: Michael W. Fleming
  */
-public class RandomMCPlayer implements PokerSquaresPlayer {
+public class RandomMCPlayer implements PokerSquaresPlayer, SearchStatsReporter {
 	
 	private final int SIZE = 5; // number of rows/columns in square grid
 	private final int NUM_POS = SIZE * SIZE; // number of positions in square grid
 	private final int NUM_CARDS = Card.NUM_CARDS; // number of cards in deck
-	private Random random = new Random(); // pseudorandom number generator for Monte Carlo simulation 
+	private SplittableRandom random = new SplittableRandom(); // pseudorandom number generator for Monte Carlo simulation 
+	private long seed = 0; // if nonzero, seed of random, reseeded by init (0: unseeded)
+	private int fixedSimulations = 0; // if positive, simulations per candidate play, ignoring the clock
 	/* range: 0-24, means 25 cards to play 
 		e.g. play(3,4) = 3*5+4 = 19, 20th card */
 	private int[] plays = new int[NUM_POS]; // positions of plays so far (index 0 through numPlays - 1) recorded as integers using row-major indices.
@@ -29,6 +32,10 @@ public class RandomMCPlayer implements PokerSquaresPlayer {
 	private PokerSquaresPointSystem system; // point system
 	private int depthLimit = 2; // default depth limit for Random Monte Carlo (MC) play
 	private Card[][] grid = new Card[SIZE][SIZE]; // grid with Card objects or null (for empty positions)
+	private LineBoard board; // incrementally scored copy of grid, kept in step by makePlay/undoPlay
+	private Deadline deadline = new Deadline(); // time checks of the simulation loops
+	private SearchStats stats; // search statistics of the current game, or null
+	private double[] simCounts = new double[NUM_POS]; // number of simulations of each candidate play (for stats)
 	private Card[] simDeck = Card.getAllCards(); // a list of all Cards. As we learn the index of cards in the play deck,
 	                                             // we swap each dealt card to its correct index.  Thus, from index numPlays 
 												 // onward, we maintain a list of undealt cards for MC simulation.
@@ -49,6 +56,32 @@ public class RandomMCPlayer implements PokerSquaresPlayer {
 		this.depthLimit = depthLimit;
 	}
 	
+	/**
+	 * Set whether to record search statistics per play (see getSearchStats).
+	 * @param collectStats whether to record search statistics
+	 */
+	public void setCollectStats(boolean collectStats) {
+		stats = collectStats ? new SearchStats() : null;
+	}
+
+	/**
+	 * Seed the pseudorandom number generator, reseeded at every init. With setFixedSimulations, a game is then
+	 * reproduced move for move.
+	 * @param seed seed (0 for an unseeded generator)
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Set a fixed number of Monte Carlo simulations per candidate play, instead of simulating until the time
+	 * allowed for it runs out (for reproducible games and benchmarks).
+	 * @param fixedSimulations simulations per candidate play (0 to use the clock)
+	 */
+	public void setFixedSimulations(int fixedSimulations) {
+		this.fixedSimulations = fixedSimulations;
+	}
+
 	/* (non-Javadoc)
 	 * @see PokerSquaresPlayer#init()
 	 */
@@ -58,6 +91,13 @@ public class RandomMCPlayer implements PokerSquaresPlayer {
 		for (int row = 0; row < SIZE; row++)
 			for (int col = 0; col < SIZE; col++)
 				grid[row][col] = null;
+		board.clear();
+		if (stats != null)
+			stats.startGame();
+		// restart the simulations from the same state each game, so that a seeded game does not depend on earlier ones
+		random = seed != 0 ? new SplittableRandom(seed) : new SplittableRandom();
+		for (int i = 0; i < NUM_CARDS; i++)
+			simDeck[i] = Card.getCard(i);
 		// reset numPlays
 		numPlays = 0;
 		// (re)initialize list of play positions (row-major ordering)
@@ -90,6 +130,10 @@ public class RandomMCPlayer implements PokerSquaresPlayer {
 		/* Swap simDeck[cardIndex] with simDeck[numPlays] */
 		simDeck[cardIndex] = simDeck[numPlays]; /* Remove the card from our card deck (simDeck[cardIndex]) */
 		simDeck[numPlays] = card; /* Get our current dealt card into the correct position in simDeck. e.g. simDeck[0] = card dealt */
+		if (stats != null) {
+			stats.startPlay();
+			Arrays.fill(simCounts, 0);
+		}
 
 		if (numPlays < 24) { // not the forced last play
 			// compute average time per move evaluation
@@ -98,7 +142,7 @@ public class RandomMCPlayer implements PokerSquaresPlayer {
 			/* millisPerPlay = Average time allowed per remaining play */
 			long millisPerPlay = millisRemaining / remainingPlays; // dividing time evenly with future getPlay() calls
 			/* ? */
-			long millisPerMoveEval = millisPerPlay / remainingPlays; // dividing time evenly across moves now considered
+			long nanosPerMoveEval = millisPerPlay * Deadline.NANOS_PER_MILLI / remainingPlays; // dividing time evenly across moves now considered (may be well below a millisecond)
 			/* copy the play positions (row-major indices) that are EMPTY 
 			arraycopy(srcArray, srcPos, destArray, destPos, length)
 			round 1: plays = [0...24], numPlays = 0, legalPlayLists[0] = plays, 0(always 0), remainingPlays = 24 */
@@ -112,20 +156,24 @@ public class RandomMCPlayer implements PokerSquaresPlayer {
 				int play = legalPlayLists[numPlays][i];
 
 				//System.out.println(play + "\n");
-				long startTime = System.currentTimeMillis();
-				/* ? */
-				long endTime = startTime + millisPerMoveEval; // compute when MC simulations should end
+				deadline.start(nanosPerMoveEval); // compute when MC simulations should end
 				
 				/* 0,0 -> 4,4 */
 				makePlay(card, play / SIZE, play % SIZE);  // play the card at the empty position
 				int simCount = 0;
 				int scoreTotal = 0;
-				while (System.currentTimeMillis() < endTime) { // perform as many MC simulations as possible through the allotted time
+				do { // perform as many MC simulations as possible through the allotted time (but always at least one)
 					// Perform a Monte Carlo simulation of random play to the depth limit or game end, whichever comes first.
 					scoreTotal += simPlay(depthLimit);  // accumulate MC simulation scores
 					simCount++; // increment count of MC simulations
-				}
+				} while (fixedSimulations > 0 ? simCount < fixedSimulations : !deadline.isExpired());
 				undoPlay(); // undo the play under evaluation
+				if (stats != null) {
+					stats.trials += simCount;
+					stats.rollouts += simCount;
+					stats.maxDepth = 1; // no tree: simulations start right below each candidate play
+					simCounts[play] = simCount;
+				}
 				// update (if necessary) the maximum average score and the list of best plays
 				double averageScore = (double) scoreTotal / simCount;
 				if (averageScore >= maxAverageScore) {
@@ -143,7 +191,11 @@ public class RandomMCPlayer implements PokerSquaresPlayer {
 				bestPlayIndex++;
 			plays[bestPlayIndex] = plays[numPlays];
 			plays[numPlays] = bestPlay;
+			if (stats != null)
+				stats.endPlay(simCounts);
 		}
+		else if (stats != null)
+			stats.endPlay(null);
 
 		int[] playPos = {plays[numPlays] / SIZE, plays[numPlays] % SIZE}; // decode it into row and column
 		makePlay(card, playPos[0], playPos[1]); // make the chosen play (not undoing this time)
@@ -156,9 +208,9 @@ public class RandomMCPlayer implements PokerSquaresPlayer {
 	 * @param depthLimit - how many simulated random plays to perform
 	 * @return resulting grid score after random MC simulation to given depthLimit
 	 */
-	private int simPlay(int depthLimit) {
+	int simPlay(int depthLimit) {
 		if (depthLimit == 0) { // with zero depth limit, return current score
-			return system.getScore(grid);
+			return board.getScore();
 		}
 		else { // up to the non-zero depth limit or to game end, iteratively make the given number of random plays 
 			int score = Integer.MIN_VALUE;
@@ -176,7 +228,7 @@ public class RandomMCPlayer implements PokerSquaresPlayer {
 				int play = legalPlayLists[numPlays][c2];
 				makePlay(card, play / SIZE, play % SIZE);
 			}
-			score = system.getScore(grid);
+			score = board.getScore(); // kept up to date by makePlay, no rescoring needed
 
 			// Undo MC plays.
 			for (int d = 0; d < depth; d++) {
@@ -202,6 +254,7 @@ public class RandomMCPlayer implements PokerSquaresPlayer {
 		// System.out.println("col " + col + "\n");
 		grid[row][col] = card;
 		int play = row * SIZE + col;
+		board.make(play, card.getCardId());
 		int j = 0;
 		while (plays[j] != play) {
 			j++;
@@ -218,6 +271,7 @@ public class RandomMCPlayer implements PokerSquaresPlayer {
 		numPlays--;
 		int play = plays[numPlays];
 		grid[play / SIZE][play % SIZE] = null;	
+		board.undo();
 	}
 
 	/* (non-Javadoc)
@@ -226,6 +280,15 @@ public class RandomMCPlayer implements PokerSquaresPlayer {
 	@Override
 	public void setPointSystem(PokerSquaresPointSystem system, long millis) {
 		this.system = system;
+		board = new LineBoard(system);
+	}
+
+	/* (non-Javadoc)
+	 * @see SearchStatsReporter#getSearchStats()
+	 */
+	@Override
+	public SearchStats getSearchStats() {
+		return stats;
 	}
 
 	/* (non-Javadoc)
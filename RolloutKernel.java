@@ -0,0 +1,146 @@
+import java.util.SplittableRandom;
+
+/**
+ * RolloutKernel - per-thread scratch arrays and random number generator for Monte Carlo trials, so that dealing a
+ * determinization and rolling it out to the end of the game allocates nothing.
+ *
+ * The kernel holds the deck order of the current trial as card ids: deck[0] is the card being placed now, followed
+ * by a random sample of the undealt cards, drawn with a partial Fisher-Yates shuffle of only as many cards as the
+ * game still needs. Rollouts fill the empty cells of a LineBoard in random order (again a partial Fisher-Yates over
+ * an int array), or where the kernel's RolloutPolicy places them, read the running score and undo their placements.
+ *
+ * A kernel must only be used by one thread at a time.
+ */
+public class RolloutKernel {
+
+	private static final int NUM_POS = LineBoard.NUM_POS;
+
+	public SplittableRandom random; // pseudorandom number generator for this kernel's simulations (replaced to reseed)
+	public RolloutPolicy policy; // placement policy of rollouts, or null for uniformly random placements
+	private final int[] deck = new int[Card.NUM_CARDS]; // deck order of the current trial (card ids)
+	private int deckSize = 0; // number of cards of the current deal
+	private int numCards = 0; // number of cards held in deck: the deal followed by the rest of the undealt cards
+	private final int[] emptyCells = new int[NUM_POS]; // scratch list of empty cells
+
+	/**
+	 * Create a kernel with the given pseudorandom number generator.
+	 * @param random pseudorandom number generator
+	 */
+	public RolloutKernel(SplittableRandom random) {
+		this.random = random;
+	}
+
+	/**
+	 * Deal a new determinization: the given card first, then numNeeded - 1 cards sampled uniformly from the
+	 * undealt cards in random order.
+	 * @param cardId card id of the card being placed now
+	 * @param undealt card ids of the undealt cards (not including cardId), only read
+	 * @param numUndealt number of valid entries in undealt
+	 * @param numNeeded total number of cards still to be placed in the game, including cardId
+	 */
+	public void deal(int cardId, int[] undealt, int numUndealt, int numNeeded) {
+		System.arraycopy(undealt, 0, deck, 1, numUndealt);
+		deck[0] = cardId;
+		numCards = numUndealt + 1;
+		deckSize = Math.min(numNeeded, numCards);
+		shuffle(1);
+	}
+
+	/**
+	 * Copy the given kernel's deal, then redraw its cards from the given position on, so that this kernel holds an
+	 * independent sample of the cards that are still unknown after the first dealt cards of that deal.
+	 * @param source kernel holding the deal to copy
+	 * @param dealt number of cards of the deal to keep
+	 */
+	public void redeal(RolloutKernel source, int dealt) {
+		System.arraycopy(source.deck, 0, deck, 0, source.numCards);
+		numCards = source.numCards;
+		deckSize = source.deckSize;
+		shuffle(dealt);
+	}
+
+	/**
+	 * Partial Fisher-Yates: draw the cards at positions from through deckSize - 1 uniformly from positions
+	 * from through numCards - 1.
+	 * @param from first position to draw
+	 */
+	private void shuffle(int from) {
+		for (int i = from; i < deckSize; i++) {
+			int j = i + random.nextInt(numCards - i);
+			int tmp = deck[i];
+			deck[i] = deck[j];
+			deck[j] = tmp;
+		}
+	}
+
+	/**
+	 * Return the card id at the given position of the current deal.
+	 * @param index position in the deal
+	 * @return card id
+	 */
+	public int getCard(int index) {
+		return deck[index];
+	}
+
+	/**
+	 * Return the number of cards of the current deal.
+	 * @return number of cards dealt
+	 */
+	public int getDeckSize() {
+		return deckSize;
+	}
+
+	/**
+	 * Fill the empty cells of the board with the cards of the current deal starting at the given position, in
+	 * random order or as the policy chooses, return the final score and take all those placements back.
+	 * @param board board to fill (restored before returning)
+	 * @param dealt position in the current deal of the next card to place
+	 * @return score of the filled board
+	 */
+	public int rollOut(LineBoard board, int dealt) {
+		int numEmpty = 0;
+		for (int cell = 0; cell < NUM_POS; cell++)
+			if (board.isEmpty(cell))
+				emptyCells[numEmpty++] = cell;
+		for (int i = 0; i < numEmpty; i++) { // the Fisher-Yates step and the placement go hand in hand
+			int j = policy == null ? i + random.nextInt(numEmpty - i) : policy.choose(board, deck[dealt + i], emptyCells, i, numEmpty, random);
+			int cell = emptyCells[j];
+			emptyCells[j] = emptyCells[i];
+			emptyCells[i] = cell;
+			board.make(cell, deck[dealt + i]);
+		}
+		int score = board.getScore();
+		for (int i = 0; i < numEmpty; i++)
+			board.undo();
+		return score;
+	}
+
+	/**
+	 * Check that dealing and rolling out allocate no memory, using the per-thread allocation counter of HotSpot.
+	 * @param args (not used)
+	 */
+	public static void main(String[] args) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		LineBoard board = new LineBoard(PokerSquaresPointSystem.getAmericanPointSystem());
+		RolloutKernel kernel = new RolloutKernel(new SplittableRandom(0));
+		int[] undealt = new int[Card.NUM_CARDS];
+		for (int i = 0; i < Card.NUM_CARDS; i++)
+			undealt[i] = i;
+		board.make(0, undealt[Card.NUM_CARDS - 1]);
+		int numUndealt = Card.NUM_CARDS - 2;
+		long total = 0;
+		for (int round = 0; round < 3; round++) { // the first rounds warm up (and compile) the kernel
+			long before = threads.getThreadAllocatedBytes(threadId);
+			for (int i = 0; i < 200000; i++) {
+				kernel.deal(undealt[Card.NUM_CARDS - 2], undealt, numUndealt, LineBoard.NUM_POS - 1);
+				total += kernel.rollOut(board, 0);
+			}
+			long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+			System.out.printf("round %d: %d bytes allocated over 200000 rollouts\n", round, allocated);
+			if (round == 2 && allocated > 1024) // allow for the measurement itself
+				throw new IllegalStateException("rollout kernel allocates " + allocated + " bytes");
+		}
+		System.out.println("Rollout kernel is allocation-free (mean score " + total / 600000.0 + ")");
+	}
+}
@@ -0,0 +1,119 @@
+import java.util.SplittableRandom;
+
+/**
+ * RolloutPolicy - a point-system-aware placement policy for rollouts: greedy on per-line potential tables, with noise.
+ *
+ * The potential of a LineState is the expected final score of the line (under the point system) if its empty
+ * slots were filled with random cards: the score itself for a full line, otherwise the average potential of the
+ * states reached by adding one more card, each rank weighted by its copies not in the line. A line with two
+ * hearts is thus worth part of a flush, a pair part of three of a kind, and so on. The table covers every line
+ * state and is computed once per point system, bottom-up from the full lines (see PointSystemAnalysis).
+ *
+ * A rollout places each card in the empty cell with the largest potential gain of its row and column (ties broken
+ * at random), except with probability epsilon, where it picks a uniformly random empty cell instead, so rollouts
+ * of the same deal still differ. A placement costs four table loads per empty cell.
+ * A policy is immutable once created (apart from the epsilon knob) and can be shared by threads.
+ */
+public class RolloutPolicy {
+
+	private static final int SIZE = LineBoard.SIZE;
+
+	public double epsilon = 0.1; // probability of a uniformly random placement instead of the greedy one
+	private final double[] potentials; // expected final line score indexed by LineState
+
+	/**
+	 * Compute the potential table of the given point system (see PointSystemAnalysis.computePotentials).
+	 * @param system point system
+	 */
+	public RolloutPolicy(PokerSquaresPointSystem system) {
+		this(PointSystemAnalysis.computePotentials(system));
+	}
+
+	/**
+	 * Create a policy with a precomputed potential table (e.g. PointSystemAnalysis.getPotentials(), not copied).
+	 * @param potentials expected final line score indexed by LineState
+	 */
+	public RolloutPolicy(double[] potentials) {
+		this.potentials = potentials;
+	}
+
+	/**
+	 * Return the potential of a line state.
+	 * @param state line state
+	 * @return expected final score of the line under random completion
+	 */
+	public double getPotential(int state) {
+		return potentials[state];
+	}
+
+	/**
+	 * Choose where to place a card among the given empty cells.
+	 * @param board board holding the current position
+	 * @param cardId card to place
+	 * @param cells empty cells (row-major indices); candidates are those at positions from through to - 1
+	 * @param from first candidate position
+	 * @param to end of the candidate positions
+	 * @param random random number generator of the calling thread
+	 * @return position in cells of the chosen cell
+	 */
+	public int choose(LineBoard board, int cardId, int[] cells, int from, int to, SplittableRandom random) {
+		if (to - from == 1)
+			return from;
+		if (random.nextDouble() < epsilon)
+			return from + random.nextInt(to - from);
+		int best = from;
+		double bestGain = Double.NEGATIVE_INFINITY;
+		int numTied = 0;
+		for (int i = from; i < to; i++) {
+			int row = cells[i] / SIZE;
+			int col = cells[i] % SIZE;
+			int rowState = board.getRowState(row);
+			int colState = board.getColState(col);
+			double gain = potentials[LineState.place(rowState, cardId)] - potentials[rowState]
+					+ potentials[LineState.place(colState, cardId)] - potentials[colState];
+			if (gain > bestGain) {
+				best = i;
+				bestGain = gain;
+				numTied = 1;
+			}
+			else if (gain == bestGain && random.nextInt(++numTied) == 0) { // uniform among ties, one pass
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Compare random and policy rollouts from the empty board: mean final score and time per rollout.
+	 * @param args (not used)
+	 */
+	public static void main(String[] args) {
+		int numRollouts = 200000;
+		int[] undealt = new int[Card.NUM_CARDS - 1]; // every card but the first one dealt (card 0)
+		for (int i = 0; i < undealt.length; i++)
+			undealt[i] = i + 1;
+		PokerSquaresPointSystem[] systems = {PokerSquaresPointSystem.getAmericanPointSystem(),
+				PokerSquaresPointSystem.getBritishPointSystem(), PokerSquaresPointSystem.getHypercornerPointSystem()};
+		String[] names = {"American", "British", "Hypercorner"};
+		for (int s = 0; s < systems.length; s++) {
+			long start = System.nanoTime();
+			RolloutPolicy policy = new RolloutPolicy(systems[s]);
+			long tableNanos = System.nanoTime() - start;
+			LineBoard board = new LineBoard(systems[s]);
+			RolloutKernel kernel = new RolloutKernel(new SplittableRandom(0));
+			for (int withPolicy = 0; withPolicy < 2; withPolicy++) {
+				kernel.policy = withPolicy == 1 ? policy : null;
+				long total = 0;
+				start = System.nanoTime();
+				for (int i = 0; i < numRollouts; i++) {
+					kernel.deal(0, undealt, undealt.length, LineBoard.NUM_POS);
+					total += kernel.rollOut(board, 0);
+				}
+				long nanos = System.nanoTime() - start;
+				System.out.printf("%-11s %-6s rollouts: mean score %6.2f, %5.0f ns per rollout%s\n", names[s],
+						withPolicy == 1 ? "policy" : "random", (double) total / numRollouts, (double) nanos / numRollouts,
+						withPolicy == 1 ? String.format(" (table computed in %.1f ms)", tableNanos / 1e6) : "");
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+import java.util.SplittableRandom;
+
+/**
+ * SearchContext - everything one search thread needs, created once and passed down the call chain of every trial:
+ * the search parameters (copied from the player at the start of each search), the point system, the random number
+ * generator and the scratch objects (board, rollout kernel, tree arena, deadline, statistics counters and expansion
+ * buffers).
+ *
+ * Tree nodes hold no reference to a player, a random number generator or any buffer; trials get all of it from
+ * the context, so creating a node allocates nothing but the node. A context is used by one thread only.
+ */
+public class SearchContext {
+
+	/* search parameters, copied from the player by configure */
+	public double selectionConstant; // UCT exploration constant
+	public int trialsPerDeck; // trials per deal
+	public int numSimulationsPerRollout; // rollouts per trial
+	public LeafRollouts leafRollouts; // rollout batcher for leaf parallelization, or null
+	public boolean groupEquivalentMoves; // whether the expansion of the root creates one child per class of equivalent placements
+
+	/* per-thread state */
+	public final PokerSquaresPointSystem system; // point system
+	public final LineBoard board; // board holding the root position during a search (make/undo)
+	public final RolloutKernel kernel; // deals and rollouts
+	public SplittableRandom random; // random number generator of this thread (the kernel's, replaced by setRandom)
+	public final MCTreeArena arena; // search tree of this thread
+	public final Deadline deadline = new Deadline(); // time checks of this thread's search loops
+	public SearchStats stats; // search counters of this thread, or null
+	public final PositionKey positionKey = new PositionKey(); // keys of the placements at expansion
+	public final int[] cells = new int[LineBoard.NUM_POS]; // cells of the children at expansion
+
+	/**
+	 * Create a context around the given board and kernel.
+	 * @param system point system
+	 * @param board board for the search (shared with the player for the calling thread)
+	 * @param kernel rollout kernel, with the thread's random number generator
+	 * @param arena search tree arena
+	 */
+	public SearchContext(PokerSquaresPointSystem system, LineBoard board, RolloutKernel kernel, MCTreeArena arena) {
+		this.system = system;
+		this.board = board;
+		this.kernel = kernel;
+		this.random = kernel.random;
+		this.arena = arena;
+	}
+
+	/**
+	 * Give this thread its own random number generator stream (e.g. split from the player's seeded generator).
+	 * @param random random number generator, used by this thread only
+	 */
+	public void setRandom(SplittableRandom random) {
+		this.random = random;
+		kernel.random = random;
+	}
+
+	/**
+	 * Copy the search parameters of the player (at the start of each search, so changes between plays apply).
+	 * @param player player holding the search parameters
+	 */
+	public void configure(ZMPlayer player) {
+		selectionConstant = player.selectionConstant;
+		trialsPerDeck = player.trialsPerDeck;
+		numSimulationsPerRollout = player.numSimulationsPerRollout;
+		leafRollouts = player.leafRollouts;
+		groupEquivalentMoves = player.groupEquivalentMoves;
+	}
+
+	/**
+	 * Collect the cells of the children of a leaf: at the root with groupEquivalentMoves, one per class of equivalent
+	 * placements of the card (see PositionKey.getDistinctPlacements), otherwise every empty cell. Only the root's
+	 * statistics are averaged over all deals, for which placements with equal keys are equivalent; the nodes below
+	 * follow one deal, for which placements equal up to a suit permutation are not (and are rebuilt for every deal,
+	 * so their keys would cost more than they save).
+	 * @param cardId card to place at the leaf held by the board
+	 * @param root whether the leaf is the root of the search
+	 * @return number of cells, stored in increasing order in cells
+	 */
+	public int getExpansionCells(int cardId, boolean root) {
+		if (root && groupEquivalentMoves)
+			return positionKey.getDistinctPlacements(board, cardId, cells);
+		int count = 0;
+		for (int cell = 0; cell < LineBoard.NUM_POS; cell++)
+			if (board.isEmpty(cell))
+				cells[count++] = cell;
+		return count;
+	}
+
+	/**
+	 * Roll out the leaf held by the board and return the value to backpropagate: the sum of
+	 * numSimulationsPerRollout rollouts, run on worker threads for leaf parallelization.
+	 * @param dealt number of cards of the kernel's deal placed at the leaf
+	 * @return sum of the rollout scores
+	 */
+	public double rollOut(int dealt) {
+		if (leafRollouts != null) {
+			/* Leaf parallelization: a batch of rollouts with independent card draws, run on worker threads */
+			return leafRollouts.rollOut(board, kernel, dealt);
+		}
+		double value = 0;
+		for (int i = 0; i < numSimulationsPerRollout; i++) {
+			value = value + MCTreeNode.rollOut(board, kernel, dealt);
+		}
+		return value;
+	}
+}
@@ -0,0 +1,167 @@
+import java.io.PrintStream;
+
+/**
+ * SearchStats - how much work a Monte Carlo player did for each play of a game.
+ *
+ * A search adds to the counters of the current play (trials, rollouts, nodes created, maximum depth reached), then
+ * the player records the play with endPlay, together with the visits of the root children by cell. The counters
+ * are plain fields that a search adds its own (local) counts to once per play, so collecting them costs nearly
+ * nothing. Threads of a parallel search each count into their own SearchStats, which are merged with add.
+ */
+public class SearchStats {
+
+	public static final int NUM_POS = PokerSquares.SIZE * PokerSquares.SIZE;
+	public static final String CSV_HEADER = "seed,score,play,millis,trials,rollouts,nodes,maxDepth,rootVisits";
+
+	/* counters of the current play */
+	public long trials; // search trials (simulations for RandomMCPlayer)
+	public long rollouts; // rollouts to the end of the game (or the depth limit)
+	public long nodes; // tree nodes created
+	public int maxDepth; // maximum depth (moves from the root) at which a rollout started (1 without a search tree)
+
+	/* recorded plays of the current game */
+	private int numPlays;
+	private final long[] playNanos = new long[NUM_POS];
+	private final long[] playTrials = new long[NUM_POS];
+	private final long[] playRollouts = new long[NUM_POS];
+	private final long[] playNodes = new long[NUM_POS];
+	private final int[] playMaxDepth = new int[NUM_POS];
+	private final double[][] playRootVisits = new double[NUM_POS][NUM_POS];
+	private long startNanos; // start of the current play
+
+	/**
+	 * Forget the plays recorded so far (new game).
+	 */
+	public void startGame() {
+		numPlays = 0;
+	}
+
+	/**
+	 * Clear the counters and start timing a play.
+	 */
+	public void startPlay() {
+		clear();
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Clear the counters of the current play.
+	 */
+	public void clear() {
+		trials = 0;
+		rollouts = 0;
+		nodes = 0;
+		maxDepth = 0;
+	}
+
+	/**
+	 * Add the counters of another thread's search to these.
+	 * @param other counters of another search thread
+	 */
+	public void add(SearchStats other) {
+		trials += other.trials;
+		rollouts += other.rollouts;
+		nodes += other.nodes;
+		maxDepth = Math.max(maxDepth, other.maxDepth);
+	}
+
+	/**
+	 * Record the current play.
+	 * @param rootVisits visits of the root children by cell (row-major index), or null if there was no search
+	 */
+	public void endPlay(double[] rootVisits) {
+		int play = numPlays++;
+		playNanos[play] = System.nanoTime() - startNanos;
+		playTrials[play] = trials;
+		playRollouts[play] = rollouts;
+		playNodes[play] = nodes;
+		playMaxDepth[play] = maxDepth;
+		for (int cell = 0; cell < NUM_POS; cell++)
+			playRootVisits[play][cell] = rootVisits == null ? 0 : rootVisits[cell];
+	}
+
+	/**
+	 * @return number of plays recorded in the current game
+	 */
+	public int getNumPlays() {
+		return numPlays;
+	}
+
+	/**
+	 * @param play play index (0 for the first card)
+	 * @return number of trials of the play
+	 */
+	public long getTrials(int play) {
+		return playTrials[play];
+	}
+
+	/**
+	 * @param play play index (0 for the first card)
+	 * @return search time of the play in nanoseconds
+	 */
+	public long getNanos(int play) {
+		return playNanos[play];
+	}
+
+	/**
+	 * @param play play index (0 for the first card)
+	 * @return number of rollouts of the play
+	 */
+	public long getRollouts(int play) {
+		return playRollouts[play];
+	}
+
+	/**
+	 * @param play play index (0 for the first card)
+	 * @return number of tree nodes created by the play
+	 */
+	public long getNodes(int play) {
+		return playNodes[play];
+	}
+
+	/**
+	 * @param play play index (0 for the first card)
+	 * @return maximum depth at which a rollout of the play started
+	 */
+	public int getMaxDepth(int play) {
+		return playMaxDepth[play];
+	}
+
+	/**
+	 * @return number of trials of the whole game
+	 */
+	public long getGameTrials() {
+		long total = 0;
+		for (int play = 0; play < numPlays; play++)
+			total += playTrials[play];
+		return total;
+	}
+
+	/**
+	 * Write one CSV line (see CSV_HEADER) per play of the game, followed by a line for the whole game (play "game",
+	 * with total time, trials, rollouts and nodes and the maximum depth).
+	 * @param out stream to write to
+	 * @param seed seed of the game
+	 * @param score final score of the game
+	 */
+	public void writeCsv(PrintStream out, long seed, int score) {
+		long nanos = 0, trials = 0, rollouts = 0, nodes = 0;
+		int maxDepth = 0;
+		for (int play = 0; play < numPlays; play++) {
+			StringBuilder visits = new StringBuilder();
+			for (int cell = 0; cell < NUM_POS; cell++) {
+				if (cell > 0)
+					visits.append(';');
+				visits.append((long) playRootVisits[play][cell]);
+			}
+			out.printf("%d,%d,%d,%.3f,%d,%d,%d,%d,%s\n", seed, score, play + 1, playNanos[play] / 1e6,
+					playTrials[play], playRollouts[play], playNodes[play], playMaxDepth[play], visits);
+			nanos += playNanos[play];
+			trials += playTrials[play];
+			rollouts += playRollouts[play];
+			nodes += playNodes[play];
+			maxDepth = Math.max(maxDepth, playMaxDepth[play]);
+		}
+		out.printf("%d,%d,game,%.3f,%d,%d,%d,%d,\n", seed, score, nanos / 1e6, trials, rollouts, nodes, maxDepth);
+	}
+}
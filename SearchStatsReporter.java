@@ -0,0 +1,11 @@
+/**
+ * SearchStatsReporter - a player that can report how much search work it did for each play (see SearchStats).
+ */
+public interface SearchStatsReporter {
+
+	/**
+	 * Return the statistics of the plays of the current (or last) game.
+	 * @return search statistics, or null if the player does not collect them
+	 */
+	SearchStats getSearchStats();
+}
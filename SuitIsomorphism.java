@@ -0,0 +1,172 @@
+/**
+ * SuitIsomorphism - canonical relabeling of the suits of a position, to normalize cache keys.
+ *
+ * Every point system scores a flush the same whatever its suit, so two positions that differ by a permutation of the
+ * suits (of the cards on the board, and hence of the cards left in the deck) have the same future. Suits are
+ * relabeled by the ranks they have on the board: the suit with the largest rank mask (bit rank set for each of its
+ * ranks on the board) gets label 0, the next one label 1, and so on, equal masks in suit order. A key built from
+ * canonical cards (canonicalCard), canonical LineStates (canonicalState) and the card set hash (getCardsKey, a sum
+ * over the suits of a hash of their rank masks, i.e. of the multiset of masks) is then the same for positions equal
+ * up to a suit permutation, up to 24 of them. Suits with equal masks are ordered by suit, so positions whose only
+ * differences are between such suits (e.g. the 5 of hearts in one line and the 5 of spades in another) may keep
+ * different keys: the relabeling never merges positions that are not equivalent, but may miss a few that are.
+ * Suits with no card on the board all have mask 0 and are fully interchangeable.
+ *
+ * Placing or removing a card changes one rank mask: the card set hash is updated in O(1) and the labels by
+ * comparing that suit with the three others. keepsLabels tells whether a placement leaves the labels unchanged, so
+ * that a key can be updated incrementally (see PositionKey.getChild). A SuitIsomorphism holds the suit state of one
+ * position and is used by one thread only.
+ */
+public class SuitIsomorphism {
+
+	private static final int NUM_SUITS = Card.NUM_SUITS;
+	private static final int NUM_RANKS = Card.NUM_RANKS;
+	private static final long MASK_SALT = 0xC2B2AE3D27D4EB4FL; // so that mask 0 does not hash to 0
+
+	private final int[] rankMasks = new int[NUM_SUITS]; // ranks of each suit on the board (bit rank)
+	private final int[] labels = new int[NUM_SUITS]; // canonical label of each suit
+	private long cardsKey; // sum over the suits of the hashes of their rank masks
+
+	/**
+	 * Create the suit state of an empty board.
+	 */
+	public SuitIsomorphism() {
+		clear();
+	}
+
+	/**
+	 * Set the suit state of an empty board.
+	 */
+	public void clear() {
+		for (int suit = 0; suit < NUM_SUITS; suit++)
+			rankMasks[suit] = 0;
+		cardsKey = NUM_SUITS * maskKey(0);
+		relabel();
+	}
+
+	/**
+	 * Set the suit state of the cards on a board.
+	 * @param board board
+	 */
+	public void setBoard(LineBoard board) {
+		for (int suit = 0; suit < NUM_SUITS; suit++)
+			rankMasks[suit] = 0;
+		for (int cell = 0; cell < LineBoard.NUM_POS; cell++)
+			if (!board.isEmpty(cell))
+				rankMasks[board.getCardId(cell) / NUM_RANKS] |= 1 << board.getCardId(cell) % NUM_RANKS;
+		cardsKey = 0;
+		for (int suit = 0; suit < NUM_SUITS; suit++)
+			cardsKey += maskKey(rankMasks[suit]);
+		relabel();
+	}
+
+	/**
+	 * Add a card placed on the board.
+	 * @param cardId card id (not on the board)
+	 */
+	public void place(int cardId) {
+		int suit = cardId / NUM_RANKS;
+		int mask = rankMasks[suit];
+		rankMasks[suit] = mask | 1 << cardId % NUM_RANKS;
+		cardsKey += maskKey(rankMasks[suit]) - maskKey(mask);
+		relabel();
+	}
+
+	/**
+	 * Remove a card from the board (undo of place).
+	 * @param cardId card id (on the board)
+	 */
+	public void remove(int cardId) {
+		int suit = cardId / NUM_RANKS;
+		int mask = rankMasks[suit];
+		rankMasks[suit] = mask & ~(1 << cardId % NUM_RANKS);
+		cardsKey += maskKey(rankMasks[suit]) - maskKey(mask);
+		relabel();
+	}
+
+	/**
+	 * Return whether placing a card would leave the labels of all suits unchanged.
+	 * @param cardId card id (not on the board)
+	 * @return whether the labels after place(cardId) are the current ones
+	 */
+	public boolean keepsLabels(int cardId) {
+		int suit = cardId / NUM_RANKS;
+		int mask = rankMasks[suit];
+		int newMask = mask | 1 << cardId % NUM_RANKS;
+		for (int other = 0; other < NUM_SUITS; other++)
+			if (other != suit && precedes(mask, suit, rankMasks[other], other) != precedes(newMask, suit, rankMasks[other], other))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @param suit suit
+	 * @return canonical label of the suit
+	 */
+	public int getLabel(int suit) {
+		return labels[suit];
+	}
+
+	/**
+	 * Return the card with the same rank and the canonical label of its suit.
+	 * @param cardId card id
+	 * @return canonical card id
+	 */
+	public int canonicalCard(int cardId) {
+		return labels[cardId / NUM_RANKS] * NUM_RANKS + cardId % NUM_RANKS;
+	}
+
+	/**
+	 * Return a line state with the suit of a single-suited line replaced by its canonical label.
+	 * @param state line state
+	 * @return canonical line state
+	 */
+	public int canonicalState(int state) {
+		int suitState = state & LineState.SUIT_MASK;
+		if (suitState == LineState.EMPTY_SUITS || suitState == LineState.MIXED_SUITS)
+			return state;
+		return state & ~LineState.SUIT_MASK | 1 + labels[suitState - 1];
+	}
+
+	/**
+	 * @return hash of the cards on the board (and hence of the deck) up to a suit permutation
+	 */
+	public long getCardsKey() {
+		return cardsKey;
+	}
+
+	/**
+	 * Return the hash of the cards on the board after placing a card, without placing it.
+	 * @param cardId card id (not on the board)
+	 * @return card set hash after place(cardId)
+	 */
+	public long getCardsKeyWith(int cardId) {
+		int mask = rankMasks[cardId / NUM_RANKS];
+		return cardsKey + maskKey(mask | 1 << cardId % NUM_RANKS) - maskKey(mask);
+	}
+
+	/**
+	 * Set the label of each suit: the number of suits that precede it.
+	 */
+	private void relabel() {
+		for (int suit = 0; suit < NUM_SUITS; suit++) {
+			int label = 0;
+			for (int other = 0; other < NUM_SUITS; other++)
+				if (other != suit && precedes(rankMasks[other], other, rankMasks[suit], suit))
+					label++;
+			labels[suit] = label;
+		}
+	}
+
+	/**
+	 * Return whether a suit with the first mask gets a smaller label than a suit with the second: larger mask first
+	 * (with the high ranks as most significant bits), then smaller suit.
+	 */
+	private static boolean precedes(int mask, int suit, int otherMask, int otherSuit) {
+		return mask > otherMask || (mask == otherMask && suit < otherSuit);
+	}
+
+	private static long maskKey(int mask) {
+		return PositionKey.mix(mask ^ MASK_SALT);
+	}
+}
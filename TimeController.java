@@ -0,0 +1,114 @@
+/**
+ * TimeController - per-move time management for a game of Poker Squares.
+ *
+ * Instead of dividing the remaining time evenly over the remaining plays, each play gets a share proportional to a
+ * weight on a budget curve over the game phase: (number of empty cells) ^ phaseExponent for every play that is a
+ * real choice, so early plays, with many options and a large chance space below them, get more time than late ones.
+ * The forced last play gets nothing, and neither do the last solvedPlays plays, which the player answers without
+ * searching (e.g. with an endgame solver, in a few milliseconds).
+ *
+ * Within a play, the search asks isTimeUp with the visit counts of its two most visited root children:
+ * - before minFraction of the budget has passed, never stop;
+ * - stop early when the best child's lead is decisive: the second child could not catch up even if it got every
+ *   trial the rest of the budget is expected to allow (at the trial rate measured so far);
+ * - at the end of the budget, stop unless the two are close (the second has at least closeRatio of the best
+ *   child's visits); close decisions get up to maxFraction of the budget, borrowing from later plays.
+ * safetyMillis of the clock are never budgeted, as a hard margin against running out of time.
+ */
+public class TimeController {
+
+	public long safetyMillis = 1000; // time never budgeted (margin for the rest of the game and for the last play)
+	public double phaseExponent = 1.0; // weight of a play is (number of empty cells) ^ phaseExponent
+	public int solvedPlays = 0; // number of last plays answered without searching, which get no time
+	public double minFraction = 0.25; // fraction of a play's budget to search before stopping early
+	public double maxFraction = 3.0; // maximum multiple of a play's budget to search when the decision is close
+	public double maxBorrowFraction = 0.5; // maximum fraction of the later plays' time an extension may take
+	public double closeRatio = 0.8; // second child visits / best child visits above which a decision is close
+	private final int numPos; // number of cells in the grid
+	private long startNanos; // start of the current play (System.nanoTime())
+	private long minEndNanos; // earliest time to stop early
+	private long endNanos; // end of the current play's budget
+	private long maxEndNanos; // latest time to stop, with an extension
+
+	/**
+	 * Create a time controller for a grid with the given number of cells.
+	 * @param numPos number of cells in the grid
+	 */
+	public TimeController(int numPos) {
+		this.numPos = numPos;
+	}
+
+	/**
+	 * Return the weight of a play on the budget curve.
+	 * @param numPlays number of cards played before it
+	 * @return weight (0 for the forced last play and the solved plays)
+	 */
+	public double getWeight(int numPlays) {
+		int numEmpty = numPos - numPlays;
+		return numEmpty <= Math.max(1, solvedPlays) ? 0 : Math.pow(numEmpty, phaseExponent);
+	}
+
+	/**
+	 * Start timing a play.
+	 * @param millisRemaining milliseconds remaining in the game
+	 * @param numPlays number of cards played so far
+	 */
+	public void startPlay(long millisRemaining, int numPlays) {
+		startNanos = System.nanoTime();
+		double totalWeight = 0;
+		for (int plays = numPlays; plays < numPos; plays++)
+			totalWeight += getWeight(plays);
+		long available = Math.max(0, millisRemaining - safetyMillis) * Deadline.NANOS_PER_MILLI;
+		long budget = totalWeight == 0 ? 0 : (long) (available * getWeight(numPlays) / totalWeight);
+		long maxBudget = Math.min((long) (budget * maxFraction), budget + (long) ((available - budget) * maxBorrowFraction));
+		minEndNanos = startNanos + (long) (budget * minFraction);
+		endNanos = startNanos + budget;
+		maxEndNanos = startNanos + Math.max(budget, maxBudget);
+	}
+
+	/**
+	 * Return the end of the current play's budget, for searches that do not stop adaptively.
+	 * @return end time (System.nanoTime())
+	 */
+	public long getEndNanos() {
+		return endNanos;
+	}
+
+	/**
+	 * Decide whether to stop searching the current play.
+	 * @param now current time (System.nanoTime(), e.g. from Deadline.getNanos())
+	 * @param trials number of trials done in this play so far
+	 * @param bestVisits visits of the most visited root child
+	 * @param secondVisits visits of the second most visited root child
+	 * @return whether to stop
+	 */
+	public boolean isTimeUp(long now, long trials, double bestVisits, double secondVisits) {
+		if (now - maxEndNanos >= 0)
+			return true;
+		if (now - minEndNanos < 0)
+			return false;
+		if (now - endNanos < 0) {
+			double trialsLeft = (double) trials / Math.max(1, now - startNanos) * (endNanos - now);
+			return bestVisits - secondVisits > trialsLeft; // decisive lead
+		}
+		return secondVisits < closeRatio * bestVisits; // extend only close decisions
+	}
+
+	/**
+	 * Print the budget curve of a 30 second game when every play uses exactly its budget and the last four plays are
+	 * solved (as ZMPlayer's endgame solver does by default).
+	 * @param args (not used)
+	 */
+	public static void main(String[] args) {
+		TimeController controller = new TimeController(25);
+		controller.solvedPlays = 4;
+		long millisRemaining = 30000;
+		for (int numPlays = 0; numPlays < 25; numPlays++) {
+			controller.startPlay(millisRemaining, numPlays);
+			long budget = (controller.endNanos - controller.startNanos) / Deadline.NANOS_PER_MILLI;
+			System.out.printf("play %2d: %5d ms budget, up to %5d ms\n", numPlays + 1, budget, (controller.maxEndNanos - controller.startNanos) / Deadline.NANOS_PER_MILLI);
+			millisRemaining -= budget;
+		}
+		System.out.println("left at the end of the game: " + millisRemaining + " ms");
+	}
+}
@@ -0,0 +1,223 @@
+import java.util.Arrays;
+
+/**
+ * TranspositionTable - bounded table of position statistics keyed by PositionKey.
+ *
+ * An entry belongs to a position (after a placement, before the next card is drawn), whatever the move order or
+ * symmetry that reached it, and holds the Monte Carlo statistics of the information-set search (visits, availability,
+ * total value; see InformationSetTree). The per-play MCTreeNode search keeps its statistics in its tree instead: its
+ * nodes below the root belong to one deal, not to a position. The endgame solver, whose values must be exact, keeps
+ * its own memo, checked against a canonical board.
+ *
+ * Entries live in an open-addressing array (linear probing) that never grows, so entries are dropped or replaced to
+ * make room. Each entry is stamped with the number of cards of its position and with the root of the last search that
+ * met it, and the search of each play starts with startPlay, between trials:
+ * - entries of positions with at most as many cards as the root are removed, since the board has filled past them;
+ * - if more than half of the slots are still in use, so are the entries the search of the previous play did not
+ *   meet (mostly deeper positions that another card made unreachable);
+ * - during the search, new slots are taken until three quarters of them are in use; from then on, a new entry takes
+ *   the slot of the first entry met while probing that the current search has not met.
+ * The search therefore keeps expanding late in a game, whatever the capacity. Removal shifts the entries of the probe
+ * sequence back, so slots are only stable between calls of startPlay. A table is used by one thread at a time.
+ */
+public class TranspositionTable {
+
+	private final long[] keys; // position key of each entry, 0 for an empty slot
+	private final int[] visits; // number of trials through each entry
+	private final int[] availability; // number of visits of the parent in which each entry was available
+	private final double[] totalValue; // sum of the values backpropagated through each entry
+	private final byte[] numCards; // number of cards on the board of each entry's position
+	private final byte[] lastPlay; // number of cards of the root of the last search that met each entry
+	private final int mask; // capacity - 1
+	private final int maxSize; // stop taking new slots beyond this load
+	private int size; // number of entries
+	private int rootCards = -1; // number of cards of the root of the current search
+	private long numInserted; // number of entries added since the table was cleared
+
+	/**
+	 * Create an empty table.
+	 * @param capacity number of slots (rounded up to a power of two)
+	 */
+	public TranspositionTable(int capacity) {
+		int slots = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		keys = new long[slots];
+		visits = new int[slots];
+		availability = new int[slots];
+		totalValue = new double[slots];
+		numCards = new byte[slots];
+		lastPlay = new byte[slots];
+		mask = slots - 1;
+		maxSize = slots / 4 * 3;
+	}
+
+	/**
+	 * Forget all entries.
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0L);
+		size = 0;
+		rootCards = -1;
+		numInserted = 0;
+	}
+
+	/**
+	 * Start the search of a play from a position with the given number of cards: remove the entries of positions with
+	 * at most that many cards and, if the table is more than half full, those the search of the previous play did not
+	 * meet. Slots returned before are no longer valid.
+	 * @param numCards number of cards on the board at the root of the search
+	 */
+	public void startPlay(int numCards) {
+		int previousRoot = rootCards;
+		rootCards = Math.max(rootCards, numCards);
+		removeIf(-1);
+		if (size > maxSize / 3 * 2)
+			removeIf(previousRoot);
+	}
+
+	/**
+	 * Remove the entries of positions with at most rootCards cards and those last met before the given root.
+	 */
+	private void removeIf(int minLastPlay) {
+		for (int slot = 0; slot <= mask; slot++)
+			while (keys[slot] != 0 && (numCards[slot] <= rootCards || lastPlay[slot] < minLastPlay))
+				remove(slot); // (re-check the slot: remove may shift another entry into it)
+	}
+
+	/**
+	 * Remove the entry of a slot, shifting back the later entries of its probe sequence (backward-shift deletion) so
+	 * that find needs no tombstones.
+	 */
+	private void remove(int slot) {
+		size--;
+		for (int next = (slot + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+			int home = home(keys[next]);
+			if (((next - home) & mask) >= ((next - slot) & mask)) { // the entry may move back to slot
+				keys[slot] = keys[next];
+				visits[slot] = visits[next];
+				availability[slot] = availability[next];
+				totalValue[slot] = totalValue[next];
+				numCards[slot] = numCards[next];
+				lastPlay[slot] = lastPlay[next];
+				slot = next;
+			}
+		}
+		keys[slot] = 0;
+	}
+
+	/**
+	 * Return the first slot of the probe sequence of a (nonzero) key.
+	 */
+	private int home(long key) {
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+
+	/**
+	 * Return the slot of the given position key, or -1 if it has no entry.
+	 * @param key position key
+	 * @return slot or -1
+	 */
+	public int find(long key) {
+		if (key == 0)
+			key = 1;
+		for (int slot = home(key); ; slot = (slot + 1) & mask) {
+			if (keys[slot] == key)
+				return slot;
+			if (keys[slot] == 0)
+				return -1;
+		}
+	}
+
+	/**
+	 * Add an empty entry for the given position key (which must not have one) and return its slot: a new slot while
+	 * fewer than three quarters are in use, else the first slot met while probing whose entry the current search has
+	 * not met.
+	 * @param key position key
+	 * @param cards number of cards on the board of the position
+	 * @return slot, or -1 if the table is full and every entry met while probing has been met by the current search
+	 */
+	public int insert(long key, int cards) {
+		if (key == 0)
+			key = 1;
+		int slot = home(key);
+		int unmet = -1;
+		while (keys[slot] != 0) {
+			if (unmet < 0 && lastPlay[slot] < rootCards)
+				unmet = slot;
+			slot = (slot + 1) & mask;
+		}
+		if (keys[slot] == 0) {
+			if (size < maxSize)
+				size++;
+			else if (unmet >= 0)
+				slot = unmet;
+			else
+				return -1;
+		}
+		keys[slot] = key;
+		numCards[slot] = (byte) cards;
+		lastPlay[slot] = (byte) rootCards;
+		numInserted++;
+		visits[slot] = 0;
+		availability[slot] = 0;
+		totalValue[slot] = 0;
+		return slot;
+	}
+
+	/**
+	 * @param slot slot of an entry
+	 * @return number of trials through the entry
+	 */
+	public int getVisits(int slot) {
+		return visits[slot];
+	}
+
+	/**
+	 * @param slot slot of an entry
+	 * @return number of visits of the parent in which the entry was available
+	 */
+	public int getAvailability(int slot) {
+		return availability[slot];
+	}
+
+	/**
+	 * @param slot slot of an entry
+	 * @return sum of the values backpropagated through the entry
+	 */
+	public double getTotalValue(int slot) {
+		return totalValue[slot];
+	}
+
+	/**
+	 * Count one more visit of the parent in which the entry was available (which marks it as met by the current
+	 * search).
+	 * @param slot slot of an entry
+	 */
+	public void addAvailability(int slot) {
+		availability[slot]++;
+		lastPlay[slot] = (byte) rootCards;
+	}
+
+	/**
+	 * Count a trial through the entry.
+	 * @param slot slot of an entry
+	 * @param value value backpropagated
+	 */
+	public void update(int slot, double value) {
+		visits[slot]++;
+		totalValue[slot] += value;
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return number of entries added since the table was cleared (including those in place of stale ones)
+	 */
+	public long getNumInserted() {
+		return numInserted;
+	}
+}
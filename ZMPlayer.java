@@ -19,19 +19,23 @@
  */
 
 import java.util.ArrayList;
-import java.util.Random;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.SplittableRandom;
 import java.util.List;
-import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.*;
 
-@SuppressWarnings("unchecked")
-public class ZMPlayer implements PokerSquaresPlayer {
+public class ZMPlayer implements PokerSquaresPlayer, SearchStatsReporter {
     public final int SIZE = 5; // number of rows/columns in square grid
 	public final int NUM_POS = SIZE * SIZE; // number of positions in square grid
 	public final int NUM_CARDS = Card.NUM_CARDS; // number of cards in deck
-	public Random random = new Random(); // pseudorandom number generator for Monte Carlo simulation 
+	public SplittableRandom random = new SplittableRandom(); // pseudorandom number generator for Monte Carlo simulation (the calling thread's stream)
+	public long seed = 0; // if nonzero, seed of all search threads' generators, reseeded by init: with fixedDeals, a game is then reproduced move for move (except with treeParallel)
 	/* range: 0-24, means 25 cards to play 
 		e.g. play(3,4) = 3*5+4 = 19, 20th card */
 	public int[] plays = new int[NUM_POS]; // positions of plays so far (index 0 through numPlays - 1) recorded as integers using row-major indices.
@@ -47,8 +51,46 @@ public class ZMPlayer implements PokerSquaresPlayer {
 	public int[][] legalPlayLists = new int[NUM_POS][NUM_POS]; // stores legal play lists indexed by numPlays (depth)
 	// (This avoids constant allocation/deallocation of such lists during the selections of MC simulations.)
 	public int trialsPerDeck = 10; 
-	public List<Card> list = Arrays.asList(simDeck);
-	public LinkedList<Card> deck = new LinkedList<Card>();
+	public int numSimulationsPerRollout = 1; // rollouts per trial
+	public double selectionConstant = 10; // UCT exploration constant
+	public boolean groupEquivalentMoves = true; // whether the root of a search tree gets one child per class of equivalent placements (same PositionKey) instead of one per empty cell
+	public LineBoard board; // incrementally scored copy of grid, shared by all nodes of the search tree (make/undo)
+	public int[] undealtCards = new int[NUM_CARDS]; // ids of the cards not dealt yet (index 0 through numUndealt - 1)
+	public int numUndealt = NUM_CARDS; // number of cards not dealt yet
+	public RolloutKernel kernel = new RolloutKernel(random); // deal and rollout scratch arrays for the search
+	public int numThreads = 1; // number of search threads (set before setPointSystem)
+	public boolean treeParallel = false; // whether the threads search one shared tree instead of one tree each
+	public int sharedTreeCapacity = 1 << 20; // maximum number of nodes of that tree, beyond which trials roll out from the leaf they reach
+	public int virtualLoss = 3; // virtual visits a thread adds along its path in a shared tree
+	public boolean leafParallel = false; // whether to search one tree and run each trial's numSimulationsPerRollout rollouts on numThreads threads instead
+	LeafRollouts leafRollouts; // rollout batcher for leaf parallelization, or null
+	public boolean policyRollouts = true; // whether rollouts place cards with a RolloutPolicy for the point system instead of at random (set before setPointSystem)
+	private RolloutPolicy rolloutPolicy; // rollout policy of the current point system, or null
+	public String analysisCacheDir = PointSystemAnalysis.DEFAULT_CACHE_DIR; // directory of the point system analysis cache (bounded, see PointSystemAnalysis), or null to keep analyses in memory only
+	private PointSystemAnalysis analysis; // precomputed data of the current point system
+	private static final long SETUP_MARGIN_MILLIS = 1000; // part of the point system time kept for the rest of setPointSystem
+	public boolean reuseTree = false; // whether to search one decision/chance node tree kept for the whole game (single-threaded)
+	public int chanceTreeCapacity = 1 << 20; // maximum number of nodes of that tree
+	private ChanceTree chanceTree; // the tree kept for the whole game, or null
+	public boolean informationSetSearch = false; // whether to search with information-set MCTS, keeping statistics per observable board for the whole game (single-threaded)
+	public int informationSetCapacity = 1 << 20; // number of slots of the transposition table of the information-set search
+	private TranspositionTable informationSetTable; // positions of the information-set search, kept for the whole game, or null
+	private InformationSetTree informationSetTree; // statistics kept for the whole game, or null
+	public int endgameCells = 4; // if positive, place cards with the expectimax EndgameSolver once at most this many cells are empty (including the card's); each more cell costs about 30 times the time
+	public int endgameCapacity = 1 << 17; // number of slots of the endgame solver's memo of positions, kept for the whole game
+	private EndgameSolver endgameSolver; // expectimax solver of the last plays, or null
+	private int minGameScore; // minimum possible game score for the current point system (value of a virtual visit)
+	public MCTreeArena arena = new MCTreeArena(ARENA_CAPACITY); // search tree, reset for each play
+	private SearchContext[] contexts; // per-thread search state (index 0 is the calling thread's, around board, kernel and arena)
+	private static final int ARENA_CAPACITY = 1 << 12; // initial number of nodes of an arena
+	private ExecutorService executor; // worker threads for root and tree parallelization, created on first use
+	private static final long WORKER_KEEP_ALIVE_SECONDS = 5; // idle time after which a worker thread ends (restarted by the next search)
+	public int fixedDeals = 0; // if positive, search exactly this many deals per play (per thread) and ignore the clock, for reproducible benchmarks
+	public boolean adaptiveTime = true; // whether to budget time per play with timeController instead of evenly
+	public TimeController timeController = new TimeController(NUM_POS); // budget curve and early stop/extension rules
+	private final double[] rootVisits = new double[NUM_POS]; // visits of the root children by cell, for timeController
+	public boolean collectStats = false; // whether to record search statistics per play (set before setPointSystem)
+	private SearchStats stats; // search statistics of the current game, or null (worker threads count into their contexts)
 	
 	//------------------------------------------------------------
 	// concurrency supports
@@ -80,6 +122,38 @@ public class ZMPlayer implements PokerSquaresPlayer {
 	public ZMPlayer() {
 	}
 
+	/**
+	 * Create a Monte Carlo player that searches the given number of independent trees in parallel and combines
+	 * their root statistics to choose each play (root parallelization).
+	 * @param numThreads number of search threads
+	 */
+	public ZMPlayer(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Create a Monte Carlo player that searches with the given number of threads, either one independent tree
+	 * per thread (root parallelization) or one tree shared by all threads with virtual loss (tree parallelization).
+	 * @param numThreads number of search threads
+	 * @param treeParallel whether the threads search one shared tree
+	 */
+	public ZMPlayer(int numThreads, boolean treeParallel) {
+		this.numThreads = numThreads;
+		this.treeParallel = treeParallel;
+	}
+
+	/**
+	 * Create a Monte Carlo player that searches one tree and rolls out each expanded leaf a batch of times in
+	 * parallel on the given number of threads, with independent card draws per rollout (leaf parallelization).
+	 * @param numThreads number of rollout threads
+	 * @param rolloutsPerLeaf number of rollouts per trial
+	 */
+	public ZMPlayer(int numThreads, int rolloutsPerLeaf) {
+		this.numThreads = numThreads;
+		this.numSimulationsPerRollout = rolloutsPerLeaf;
+		this.leafParallel = true;
+	}
+
     /**
 	 * Create a Random Monte Carlo player that simulates random play to a given depth limit.
 	 * @param depthLimit depth limit for random simulated play
@@ -102,6 +176,36 @@ public class ZMPlayer implements PokerSquaresPlayer {
 		});
 
 
+		board.clear();
+		if (stats != null) {
+			stats.startGame();
+		}
+		if (chanceTree != null) {
+			chanceTree.clear();
+		}
+		if (informationSetTable != null) {
+			informationSetTable.clear();
+		}
+		if (endgameSolver != null) {
+			endgameSolver.clear();
+		}
+
+		// split one (seeded) generator into a stream per search thread
+		SplittableRandom streams = seed != 0 ? new SplittableRandom(seed) : new SplittableRandom();
+		random = streams.split();
+		contexts[0].setRandom(random);
+		for (int i = 1; i < contexts.length; i++) {
+			contexts[i].setRandom(streams.split());
+		}
+		if (leafRollouts != null) {
+			leafRollouts.setRandom(streams);
+		}
+
+		// all cards are undealt again
+		for (int i = 0; i < NUM_CARDS; i++)
+			undealtCards[i] = i;
+		numUndealt = NUM_CARDS;
+
 		// reset numPlays, we played 0 card so far.
 		numPlays = 0;
 
@@ -119,6 +223,36 @@ public class ZMPlayer implements PokerSquaresPlayer {
 	@Override
 	public void setPointSystem(PokerSquaresPointSystem system, long millis) {
 		this.system = system;
+		board = new LineBoard(system);
+		/* Potential table and minimum score: computed in parallel within the point system time, or loaded from
+		 * the analysis cache if this score table was seen before. Without a potential table in time (e.g. many
+		 * players computing at once on a loaded machine), the rollouts of this point system are random. */
+		analysis = PointSystemAnalysis.get(system, analysisCacheDir, millis - SETUP_MARGIN_MILLIS);
+		minGameScore = analysis.getMinScore();
+		chanceTree = reuseTree ? new ChanceTree(chanceTreeCapacity) : null;
+		/* Positions per search: the endgame solver only runs after the last information-set search of a game, so
+		 * neither could use what the other stored */
+		informationSetTable = informationSetSearch ? new TranspositionTable(informationSetCapacity) : null;
+		informationSetTree = informationSetSearch ? new InformationSetTree(informationSetTable) : null;
+		endgameSolver = endgameCells > 0 ? new EndgameSolver(system, endgameCapacity) : null;
+		if (leafRollouts != null) {
+			leafRollouts.shutdown(); // (the batcher of the previous point system)
+		}
+		leafRollouts = leafParallel ? new LeafRollouts(system, numSimulationsPerRollout, numThreads) : null;
+		rolloutPolicy = policyRollouts && analysis.getPotentials() != null ? new RolloutPolicy(analysis.getPotentials()) : null;
+		kernel.policy = rolloutPolicy;
+		if (leafRollouts != null) {
+			leafRollouts.setPolicy(rolloutPolicy);
+		}
+		stats = collectStats ? new SearchStats() : null;
+		contexts = new SearchContext[Math.max(1, numThreads)];
+		contexts[0] = new SearchContext(system, board, kernel, arena);
+		contexts[0].stats = stats;
+		for (int i = 1; i < contexts.length; i++) {
+			contexts[i] = new SearchContext(system, new LineBoard(system), new RolloutKernel(random.split()), new MCTreeArena(ARENA_CAPACITY));
+			contexts[i].kernel.policy = rolloutPolicy;
+			contexts[i].stats = collectStats ? new SearchStats() : null;
+		}
 	}
 
     /* (non-Javadoc)
@@ -137,13 +271,17 @@ public class ZMPlayer implements PokerSquaresPlayer {
         // (This avoids constant allocation/deallocation of such lists during the greedy selections of MC simulations.)
         int[] playPos = new int[2];
 
+        /* Remove the card from the undealt cards */
+        removeUndealt(card.getCardId());
+		if (stats != null) {
+			stats.startPlay();
+		}
+		boolean searched = false;
+
         if (numPlays == 0) {
-            /* Initialize everything when playing first */
-            deck.addAll(list);
-            /* Remove the card from the current deck */
-            deck.remove(card);
             /* Always place the first card at the upper left corner aka grid[0][0] */
             grid[0][0] = card;
+            board.make(0, card.getCardId());
             
             playPos[0] = 0;
             playPos[1] = 0;
@@ -154,68 +292,54 @@ public class ZMPlayer implements PokerSquaresPlayer {
             // compute average time per move evaluation
             /* remainingPlays = how many cards left? First round: 25-0 */
             int remainingPlays = NUM_POS - numPlays; // ignores triviality of last play to keep a conservative margin for game completion
-            /* millisPerPlay = Average time allowed per remaining play */
-            long millisPerPlay = (millisRemaining - 1000) / remainingPlays; // dividing time evenly with future getPlay() calls
-            //System.out.println(playPos + "\n");
-            long startTime = System.currentTimeMillis();
-			/* Time allowed to play at each round */
-            long endTime = startTime + millisPerPlay;
-
-			/* The currentNode of the Monte Carlo Search Tree */
-			MCTreeNode currentNode = new MCTreeNode(numPlays, grid, system);
-            
-			/* remove the card from our deck */
-            deck.remove(card);
+			long endTime; // System.nanoTime() at which to stop searching
+			if (adaptiveTime) {
+				/* Time allowed for this play by the budget curve (single-threaded searches may stop early or extend it);
+				 * the plays left to the endgame solver take a few milliseconds and get no share */
+				timeController.solvedPlays = endgameSolver != null ? endgameCells : 0;
+				timeController.startPlay(millisRemaining, numPlays);
+				endTime = timeController.getEndNanos();
+			}
+			else {
+				/* millisPerPlay = Average time allowed per remaining play */
+				int searchedPlays = remainingPlays - (endgameSolver != null ? endgameCells : 0); // (not counting the solved plays)
+				long millisPerPlay = (millisRemaining - 1000) / Math.max(1, searchedPlays); // dividing time evenly with future getPlay() calls
+				long startTime = System.nanoTime();
+				/* Time allowed to play at each round */
+				endTime = startTime + millisPerPlay * Deadline.NANOS_PER_MILLI;
+			}
 
-			
-
-			/* While in the allowed time, perform as many simulations as possible :) */
-			/**
-			 * We plan to add concurrency to this program but doing so means
-			 * 	we probably need to rebuild the entire thing, including the 
-			 * 	code already given to us. 
-			 */
-			while (System.currentTimeMillis() < endTime) { // perform as many MC simulations as possible through the allotted time
-				/* This is a new shuffled deck. Usage: simulations */
-				// (This avoids constant allocation/deallocation of such lists during the greedy selections of MC simulations.)
-                LinkedList<Card> tempDeck = new LinkedList<Card>();
-                
-                // create new shuffled sim deck to use
-                tempDeck = (LinkedList<Card>)deck.clone();
-                Collections.shuffle(tempDeck, random);
-                tempDeck.push(card);
-                
-				/* create and do the trials */
-				/**
-				 * we cannot simply parallelize this part because of the data 
-				 * 	dependency problem
-				 */
-                for(int t = 0; t < trialsPerDeck; t++) {
-                    currentNode.trial(card, tempDeck);
-                }
-                
-				/* eliminate (reset) the nodes added in the trials */
-				/**
-				 * This does not support concurrent stream access
-				 */
-                for(MCTreeNode node: currentNode.children) {
-                    node.children = null;
-                }
-                tempDeck.clear();
-            }
+			int bestCell;
+			Arrays.fill(rootVisits, 0);
+			for (SearchContext context : contexts) {
+				context.configure(this);
+			}
+			if (remainingPlays <= endgameCells) {
+				/* Few enough empty cells to enumerate the rest of the game: expectimax instead of sampling */
+				bestCell = endgameSolver.solve(board, card.getCardId(), undealtCards, numUndealt);
+				count(stats, 0, endgameSolver.getNodes(), 0);
+			}
+			else if (informationSetSearch) {
+				bestCell = searchInformationSets(card, remainingPlays, endTime);
+			}
+			else if (reuseTree) {
+				bestCell = searchChanceTree(card, remainingPlays, endTime);
+			}
+			else if (numThreads <= 1 || leafParallel) {
+				searchTree(contexts[0], card, remainingPlays, endTime, adaptiveTime);
+				bestCell = arena.getCell(arena.bestUCTChild(MCTreeArena.ROOT, selectionConstant, random));
+				setRootVisits(arena);
+			}
+			else {
+				bestCell = searchTreesInParallel(card, remainingPlays, endTime);
+			}
+			searched = true;
             
-            MCTreeNode bestNode = currentNode.bestUCTValue();
-            
-			/* Place the new card in the bestNode in the correct position */
-			Rowlist.parallelStream().forEach((row) -> {
-				Collist.parallelStream().forEach((col) -> {
-					if (bestNode.board[row][col] == card) {
-						grid[row][col] = card;
-                        playPos[0] = row;
-                        playPos[1] = col;
-                    }
-				});
-			});
+			/* Place the new card in the best cell */
+			playPos[0] = bestCell / SIZE;
+			playPos[1] = bestCell % SIZE;
+			grid[playPos[0]][playPos[1]] = card;
+			board.make(bestCell, card.getCardId());
 						
 		}
 		else {
@@ -226,16 +350,356 @@ public class ZMPlayer implements PokerSquaresPlayer {
 					if(grid[row][col] == null) {
 						// Just place the card in the only empty pos 
                         grid[row][col] = card;
+                        board.make(row * SIZE + col, card.getCardId());
                         playPos[0] = row;
                         playPos[1] = col;
                     }
 				});
 			});
         }
+		if (stats != null) {
+			stats.endPlay(searched ? rootVisits : null);
+		}
 		numPlays++;
 
 		return playPos;
     }
+	/**
+	 * Search a new Monte Carlo tree for the play of the given card until the given time.
+	 * @param context this thread's search context: its board holds the current grid (used for make/undo by the search
+	 * and restored afterwards) and its arena holds the search tree (reset first)
+	 * @param card card to play
+	 * @param remainingPlays number of cards still to be placed, including card
+	 * @param endTime time (System.nanoTime()) at which to stop searching
+	 * @param adaptive whether timeController decides when to stop (only for the calling thread's single tree)
+	 */
+	void searchTree(SearchContext context, Card card, int remainingPlays, long endTime, boolean adaptive) {
+		MCTreeArena tree = context.arena;
+		RolloutKernel kernel = context.kernel;
+		Deadline deadline = context.deadline;
+		/* The root of the Monte Carlo Search Tree */
+		tree.reset();
+
+		/* While in the allowed time, perform as many simulations as possible :) (but always at least one deck) */
+		long trials = 0;
+		long nodes = 0;
+		int maxDepth = 0;
+		deadline.startUntil(endTime);
+		do { // perform as many MC simulations as possible through the allotted time
+			/* This is a new shuffled deck: our card first, then as many undealt cards as the game still needs */
+			// (The kernel's arrays avoid constant allocation/deallocation of decks during MC simulations.)
+			kernel.deal(card.getCardId(), undealtCards, numUndealt, remainingPlays);
+
+			/* create and do the trials */
+			/**
+			 * The trials of one deck depend on each other through the tree,
+			 * 	so parallelism comes from searching independent trees (see searchTreesInParallel)
+			 * 	or one shared tree with virtual loss (see searchSharedTree)
+			 */
+			int size = tree.size();
+			for(int t = 0; t < trialsPerDeck; t++) {
+				maxDepth = Math.max(maxDepth, tree.trial(context));
+			}
+			trials += trialsPerDeck;
+			nodes += tree.size() - size;
+
+			/* eliminate (reset) the nodes added in the trials */
+			tree.pruneBelowRootChildren();
+		} while (fixedDeals > 0 ? trials < (long) fixedDeals * trialsPerDeck
+				: adaptive ? !(deadline.poll() && isTimeUp(tree, trials)) : !deadline.isExpired());
+		count(context.stats, trials, nodes, maxDepth);
+	}
+
+	/**
+	 * Add a search's counts to the given search counters.
+	 * @param stats search counters, or null
+	 * @param trials number of trials
+	 * @param nodes number of tree nodes created
+	 * @param maxDepth maximum depth at which a rollout started
+	 */
+	private void count(SearchStats stats, long trials, long nodes, int maxDepth) {
+		if (stats != null) {
+			stats.trials += trials;
+			stats.rollouts += trials * numSimulationsPerRollout;
+			stats.nodes += nodes;
+			stats.maxDepth = Math.max(stats.maxDepth, maxDepth);
+		}
+	}
+
+	/**
+	 * Ask timeController whether to stop searching the given arena.
+	 * @param tree arena searched by this thread
+	 * @param trials number of trials done in this play so far
+	 * @return whether to stop
+	 */
+	private boolean isTimeUp(MCTreeArena tree, long trials) {
+		setRootVisits(tree);
+		return isTimeUp(trials);
+	}
+
+	/**
+	 * Copy the visits of the root children of the given arena into rootVisits.
+	 * @param tree arena searched by this thread
+	 */
+	private void setRootVisits(MCTreeArena tree) {
+		int end = tree.getFirstChild(MCTreeArena.ROOT) + tree.getChildCount(MCTreeArena.ROOT);
+		for (int child = tree.getFirstChild(MCTreeArena.ROOT); child < end; child++) {
+			rootVisits[tree.getCell(child)] = tree.getVisits(child);
+		}
+	}
+
+	/**
+	 * Copy the visits of the root children of the chance tree into rootVisits.
+	 */
+	private void setChanceTreeRootVisits() {
+		int root = chanceTree.getRoot();
+		for (int child = chanceTree.getFirstChild(root); child != ChanceTree.NONE; child = chanceTree.getNextSibling(child)) {
+			rootVisits[chanceTree.getCell(child)] = chanceTree.getVisits(child);
+		}
+	}
+
+	/**
+	 * Ask timeController whether to stop searching, given the visits of the root children in rootVisits
+	 * and the time of this thread's last clock read.
+	 * @param trials number of trials done in this play so far
+	 * @return whether to stop
+	 */
+	private boolean isTimeUp(long trials) {
+		double bestVisits = 0;
+		double secondVisits = 0;
+		for (int cell = 0; cell < NUM_POS; cell++) {
+			if (board.isEmpty(cell)) {
+				double visits = rootVisits[cell];
+				if (visits > bestVisits) {
+					secondVisits = bestVisits;
+					bestVisits = visits;
+				}
+				else if (visits > secondVisits) {
+					secondVisits = visits;
+				}
+			}
+		}
+		return timeController.isTimeUp(contexts[0].deadline.getNanos(), trials, bestVisits, secondVisits);
+	}
+
+	/**
+	 * Continue searching the tree kept for the whole game, from the decision node for the given card, until the
+	 * given time. Every trial uses a new deal, since card outcomes are part of the tree.
+	 * @param card card to play
+	 * @param remainingPlays number of cards still to be placed, including card
+	 * @param endTime time (System.nanoTime()) at which to stop searching
+	 * @return the chosen cell
+	 */
+	private int searchChanceTree(Card card, int remainingPlays, long endTime) {
+		SearchContext context = contexts[0];
+		Deadline deadline = context.deadline;
+		chanceTree.enterCard(card.getCardId());
+		int size = chanceTree.size();
+		int maxDepth = 0;
+		long trials = 0;
+		boolean timeUp;
+		deadline.startUntil(endTime);
+		do {
+			kernel.deal(card.getCardId(), undealtCards, numUndealt, remainingPlays);
+			maxDepth = Math.max(maxDepth, chanceTree.trial(context));
+			trials++;
+			if (fixedDeals > 0) {
+				timeUp = trials >= fixedDeals;
+			}
+			else if (!adaptiveTime) {
+				timeUp = deadline.isExpired();
+			}
+			else if (!deadline.poll()) {
+				timeUp = false;
+			}
+			else {
+				setChanceTreeRootVisits();
+				timeUp = isTimeUp(trials);
+			}
+		} while (!timeUp);
+		count(stats, trials, chanceTree.size() - size, maxDepth);
+		setChanceTreeRootVisits();
+		int bestCell = chanceTree.getCell(chanceTree.bestUCTChild(chanceTree.getRoot(), selectionConstant, random));
+		chanceTree.play(bestCell);
+		return bestCell;
+	}
+
+	/**
+	 * Continue the information-set search kept for the whole game from the current board until the given time.
+	 * Every trial samples a new determinization of the unknown cards; statistics are shared by all of them.
+	 * @param card card to play
+	 * @param remainingPlays number of cards still to be placed, including card
+	 * @param endTime time (System.nanoTime()) at which to stop searching
+	 * @return the chosen cell
+	 */
+	private int searchInformationSets(Card card, int remainingPlays, long endTime) {
+		SearchContext context = contexts[0];
+		Deadline deadline = context.deadline;
+		informationSetTable.startPlay(board.getNumCards());
+		long inserted = informationSetTable.getNumInserted();
+		int maxDepth = 0;
+		long trials = 0;
+		boolean timeUp;
+		deadline.startUntil(endTime);
+		do {
+			kernel.deal(card.getCardId(), undealtCards, numUndealt, remainingPlays);
+			maxDepth = Math.max(maxDepth, informationSetTree.trial(context));
+			trials++;
+			if (fixedDeals > 0) {
+				timeUp = trials >= fixedDeals;
+			}
+			else if (!adaptiveTime) {
+				timeUp = deadline.isExpired();
+			}
+			else if (!deadline.poll()) {
+				timeUp = false;
+			}
+			else {
+				informationSetTree.getRootVisits(board, card.getCardId(), rootVisits);
+				timeUp = isTimeUp(trials);
+			}
+		} while (!timeUp);
+		count(stats, trials, informationSetTable.getNumInserted() - inserted, maxDepth);
+		informationSetTree.getRootVisits(board, card.getCardId(), rootVisits);
+		return informationSetTree.bestCell(board, card.getCardId());
+	}
+
+	/**
+	 * Search the given tree, shared with other threads, until the given time (tree parallelization).
+	 * Each deal's trials run with virtual loss. The tree is not pruned between deals, since other threads are
+	 * still searching it: below the root, a node stands for a (cell, card) move, and each trial follows the nodes of
+	 * its own deal's cards.
+	 * Nodes are not counted in the context's search counters, but once the search is over.
+	 * @param root root of the shared tree
+	 * @param context this thread's search context, whose board holds the current grid
+	 * @param card card to play
+	 * @param remainingPlays number of cards still to be placed, including card
+	 * @param endTime time (System.nanoTime()) at which to stop searching
+	 */
+	void searchSharedTree(MCTreeNode root, SearchContext context, Card card, int remainingPlays, long endTime) {
+		RolloutKernel kernel = context.kernel;
+		Deadline deadline = context.deadline;
+		/* a virtual visit counts as a trial in which every rollout scores the minimum game score */
+		double virtualLossValue = numSimulationsPerRollout * minGameScore;
+		deadline.startUntil(endTime);
+		int deals = 0;
+		int maxDepth = 0;
+		do {
+			kernel.deal(card.getCardId(), undealtCards, numUndealt, remainingPlays);
+			for(int t = 0; t < trialsPerDeck; t++) {
+				maxDepth = Math.max(maxDepth, root.trial(context, virtualLoss, virtualLossValue));
+			}
+			deals++;
+		} while (fixedDeals > 0 ? deals < fixedDeals : !deadline.isExpired());
+		count(context.stats, (long) deals * trialsPerDeck, 0, maxDepth);
+	}
+
+	/**
+	 * Parallel search on numThreads threads, each with its own board, deals and random number generator.
+	 * Root parallelization (the default) searches independent tree arenas, then adds up the visits and values of
+	 * the root children that place the card in the same cell. Tree parallelization (treeParallel) searches one
+	 * shared MCTreeNode tree. Either way, the cell with the most visits in total (ties broken by total value)
+	 * is returned.
+	 * @param card card to play
+	 * @param remainingPlays number of cards still to be placed, including card
+	 * @param endTime time (System.nanoTime()) at which to stop searching
+	 * @return the chosen cell
+	 */
+	private int searchTreesInParallel(Card card, int remainingPlays, long endTime) {
+		if (executor == null) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(numThreads - 1, numThreads - 1,
+					WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+				Thread thread = new Thread(runnable, "ZMPlayer search");
+				thread.setDaemon(true); // never keep the game from exiting
+				return thread;
+			});
+			pool.allowCoreThreadTimeOut(true); // idle workers end, so a player that is no longer used holds no thread
+			executor = pool;
+		}
+		MCTreeNode sharedRoot = treeParallel ? new MCTreeNode(sharedTreeCapacity) : null;
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i = 1; i < numThreads; i++) {
+			SearchContext context = contexts[i];
+			if (context.stats != null)
+				context.stats.clear();
+			context.board.copyFrom(board);
+			futures.add(executor.submit(() -> {
+				if (treeParallel)
+					searchSharedTree(sharedRoot, context, card, remainingPlays, endTime);
+				else
+					searchTree(context, card, remainingPlays, endTime, false);
+			}));
+		}
+		if (treeParallel)
+			searchSharedTree(sharedRoot, contexts[0], card, remainingPlays, endTime);
+		else
+			searchTree(contexts[0], card, remainingPlays, endTime, false);
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+		if (stats != null) {
+			for (int i = 1; i < numThreads; i++) {
+				stats.add(contexts[i].stats);
+			}
+			if (treeParallel) {
+				stats.nodes += sharedRoot.countNodes() - 1;
+			}
+		}
+
+		/* Merge the root children of all trees by cell */
+		double[] visits = new double[NUM_POS];
+		double[] values = new double[NUM_POS];
+		if (treeParallel) {
+			for (MCTreeNode child : sharedRoot.getChildren(card.getCardId())) {
+				visits[child.cell] += child.getVisits();
+				values[child.cell] += child.getTotalValue();
+			}
+		}
+		else {
+			for (SearchContext context : contexts) {
+				MCTreeArena tree = context.arena;
+				int end = tree.getFirstChild(MCTreeArena.ROOT) + tree.getChildCount(MCTreeArena.ROOT);
+				for (int child = tree.getFirstChild(MCTreeArena.ROOT); child < end; child++) {
+					visits[tree.getCell(child)] += tree.getVisits(child);
+					values[tree.getCell(child)] += tree.getTotalValue(child);
+				}
+			}
+		}
+		int bestCell = -1;
+		for (int cell = 0; cell < NUM_POS; cell++) {
+			if (board.isEmpty(cell) && (bestCell < 0 || visits[cell] > visits[bestCell]
+					|| (visits[cell] == visits[bestCell] && values[cell] > values[bestCell]))) {
+				bestCell = cell;
+			}
+		}
+		System.arraycopy(visits, 0, rootVisits, 0, NUM_POS);
+		return bestCell;
+	}
+
+	/* (non-Javadoc)
+	 * @see SearchStatsReporter#getSearchStats()
+	 */
+	@Override
+	public SearchStats getSearchStats() {
+		return stats;
+	}
+
+	/**
+	 * Remove a card from the undealt cards.
+	 * @param cardId id of the dealt card
+	 */
+	private void removeUndealt(int cardId) {
+		int i = 0;
+		while (undealtCards[i] != cardId) {
+			i++;
+		}
+		undealtCards[i] = undealtCards[--numUndealt];
+	}
+
     /**
 	 * Demonstrate MCPlay with British point system.
 	 * @param args (not used)
@@ -244,6 +708,6 @@ public class ZMPlayer implements PokerSquaresPlayer {
         /* Using British System */
         PokerSquaresPointSystem system = PokerSquaresPointSystem.getBritishPointSystem();
         System.out.println(system);
-        new PokerSquares(new ZMPlayer(), system).play(); // play a single game
+        new PokerSquares(new ZMPlayer(Runtime.getRuntime().availableProcessors()), system).play(); // play a single game, searching on all cores
     }
 }
@@ -0,0 +1,321 @@
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import pokersquares.jmh.Workload;
+
+/**
+ * Workloads - the benchmarked operations (see pokersquares.jmh.Workload), on boards filled by a seeded random game.
+ */
+public class Workloads {
+
+	static final int SIZE = PokerSquares.SIZE;
+	static final int NUM_POS = SIZE * SIZE;
+
+	/**
+	 * Return the point system of the given name.
+	 * @param name British, American or Hypercorner
+	 * @return point system
+	 */
+	static PokerSquaresPointSystem pointSystem(String name) {
+		switch (name) {
+		case "British":
+			return PokerSquaresPointSystem.getBritishPointSystem();
+		case "American":
+			return PokerSquaresPointSystem.getAmericanPointSystem();
+		case "Hypercorner":
+			return PokerSquaresPointSystem.getHypercornerPointSystem();
+		default:
+			throw new IllegalArgumentException("unknown point system " + name);
+		}
+	}
+
+	/**
+	 * A seeded deal and placement order: deal[i] is placed in cell cells[i].
+	 */
+	static class SeededGame {
+		final int[] deal = new int[Card.NUM_CARDS]; // card ids in deal order
+		final int[] cells = new int[NUM_POS]; // cells in placement order
+
+		SeededGame(long seed) {
+			Random random = new Random(seed);
+			for (int i = 0; i < deal.length; i++)
+				deal[i] = i;
+			for (int i = deal.length - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int tmp = deal[i]; deal[i] = deal[j]; deal[j] = tmp;
+			}
+			for (int i = 0; i < NUM_POS; i++)
+				cells[i] = i;
+			for (int i = NUM_POS - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int tmp = cells[i]; cells[i] = cells[j]; cells[j] = tmp;
+			}
+		}
+
+		/**
+		 * @param fill number of cards to place
+		 * @return grid with the first fill cards of the deal in their cells
+		 */
+		Card[][] grid(int fill) {
+			Card[][] grid = new Card[SIZE][SIZE];
+			for (int i = 0; i < fill; i++)
+				grid[cells[i] / SIZE][cells[i] % SIZE] = Card.getCard(deal[i]);
+			return grid;
+		}
+
+		/**
+		 * @param system point system
+		 * @param fill number of cards to place
+		 * @return board with the first fill cards of the deal in their cells
+		 */
+		LineBoard board(PokerSquaresPointSystem system, int fill) {
+			LineBoard board = new LineBoard(system);
+			for (int i = 0; i < fill; i++)
+				board.make(cells[i], deal[i]);
+			return board;
+		}
+	}
+
+	/** PokerHand.getPokerHand over the 10 (possibly partial) lines of the board. */
+	public static class GetPokerHand implements Workload {
+		private final Card[][] lines = new Card[2 * SIZE][SIZE];
+		private int line;
+
+		@Override
+		public void setUp(String system, int fill, long seed) {
+			Card[][] grid = new SeededGame(seed).grid(fill);
+			for (int row = 0; row < SIZE; row++)
+				for (int col = 0; col < SIZE; col++) {
+					lines[row][col] = grid[row][col];
+					lines[SIZE + col][row] = grid[row][col];
+				}
+		}
+
+		@Override
+		public int run() {
+			line = line == 2 * SIZE - 1 ? 0 : line + 1;
+			return PokerHand.getPokerHand(lines[line]).id;
+		}
+	}
+
+	/** PokerSquaresPointSystem.getScore of the board. */
+	public static class GetScore implements Workload {
+		private PokerSquaresPointSystem system;
+		private Card[][] grid;
+
+		@Override
+		public void setUp(String system, int fill, long seed) {
+			this.system = pointSystem(system);
+			grid = new SeededGame(seed).grid(fill);
+		}
+
+		@Override
+		public int run() {
+			return system.getScore(grid);
+		}
+	}
+
+	/** PokerSquaresPointSystem.getHandScores of the board. */
+	public static class GetHandScores implements Workload {
+		private PokerSquaresPointSystem system;
+		private Card[][] grid;
+
+		@Override
+		public void setUp(String system, int fill, long seed) {
+			this.system = pointSystem(system);
+			grid = new SeededGame(seed).grid(fill);
+		}
+
+		@Override
+		public int run() {
+			return system.getHandScores(grid)[0];
+		}
+	}
+
+	/**
+	 * Base of the workloads that deal the unknown cards from the board's position: the next card of the seeded
+	 * deal is the card to place, the rest of the deck is unknown.
+	 */
+	abstract static class DealWorkload implements Workload {
+		PokerSquaresPointSystem system;
+		LineBoard board;
+		RolloutKernel kernel;
+		int card; // card to place
+		int[] undealt = new int[Card.NUM_CARDS];
+		int numUndealt;
+		int remainingPlays;
+
+		@Override
+		public void setUp(String system, int fill, long seed) {
+			SeededGame game = new SeededGame(seed);
+			this.system = pointSystem(system);
+			board = game.board(this.system, fill);
+			kernel = new RolloutKernel(new SplittableRandom(seed));
+			card = game.deal[fill];
+			numUndealt = 0;
+			for (int i = fill + 1; i < Card.NUM_CARDS; i++)
+				undealt[numUndealt++] = game.deal[i];
+			remainingPlays = NUM_POS - fill;
+		}
+	}
+
+	/** A fresh deal and one MCTreeNode.rollOut to the end of the game. */
+	public static class RollOut extends DealWorkload {
+		@Override
+		public int run() {
+			kernel.deal(card, undealt, numUndealt, remainingPlays);
+			return (int) MCTreeNode.rollOut(board, kernel, 0);
+		}
+	}
+
+	/** One deal and rollout to the end of the game with the point system's RolloutPolicy. */
+	public static class PolicyRollOut extends RollOut {
+		@Override
+		public void setUp(String system, int fill, long seed) {
+			super.setUp(system, fill, seed);
+			kernel.policy = new RolloutPolicy(this.system);
+		}
+	}
+
+	/** One MCTreeNode.trial, searched as ZMPlayer does: trialsPerDeck trials per deal, then prune. */
+	public static class Trial extends DealWorkload {
+		private SearchContext context;
+		private MCTreeNode root;
+		private int trials;
+
+		@Override
+		public void setUp(String system, int fill, long seed) {
+			super.setUp(system, fill, seed);
+			context = new SearchContext(this.system, board, kernel, null);
+			context.configure(new ZMPlayer());
+			root = new MCTreeNode();
+		}
+
+		@Override
+		public int run() {
+			if (trials % context.trialsPerDeck == 0) {
+				root.prune();
+				kernel.deal(card, undealt, numUndealt, remainingPlays);
+			}
+			trials++;
+			root.trial(context);
+			return trials;
+		}
+	}
+
+	/** One MCTreeArena.trial (the single-threaded ZMPlayer search), trialsPerDeck trials per deal. */
+	public static class ArenaTrial extends DealWorkload {
+		private SearchContext context;
+		private MCTreeArena arena = new MCTreeArena(1 << 12);
+		private int trials;
+
+		@Override
+		public void setUp(String system, int fill, long seed) {
+			super.setUp(system, fill, seed);
+			context = new SearchContext(this.system, board, kernel, arena);
+			context.configure(new ZMPlayer());
+		}
+
+		@Override
+		public int run() {
+			if (trials % context.trialsPerDeck == 0) {
+				arena.pruneBelowRootChildren();
+				kernel.deal(card, undealt, numUndealt, remainingPlays);
+			}
+			trials++;
+			arena.trial(context);
+			return arena.size();
+		}
+	}
+
+	/** RandomMCPlayer.simPlay (depth 2) from the board's position. */
+	public static class SimPlay implements Workload {
+		private RandomMCPlayer player;
+
+		@Override
+		public void setUp(String system, int fill, long seed) {
+			SeededGame game = new SeededGame(seed);
+			player = new RandomMCPlayer();
+			player.setPointSystem(pointSystem(system), PokerSquares.POINT_SYSTEM_MILLIS);
+			player.init();
+			for (int i = 0; i < fill; i++)
+				player.makePlay(Card.getCard(game.deal[i]), game.cells[i] / SIZE, game.cells[i] % SIZE);
+		}
+
+		@Override
+		public int run() {
+			return player.simPlay(2);
+		}
+	}
+
+	/**
+	 * ZMPlayer.getPlay of the next card of the deal, with a fixed number of deals per play instead of a time budget.
+	 * reset() replays the game up to the board's position (placing the cards with one deal per play).
+	 */
+	public static class GetPlay implements Workload {
+		static final int DEALS_PER_PLAY = 100;
+		private ZMPlayer player;
+		private SeededGame game;
+		private int fill;
+
+		@Override
+		public void setUp(String system, int fill, long seed) {
+			game = new SeededGame(seed);
+			this.fill = fill;
+			player = new ZMPlayer();
+			player.setPointSystem(pointSystem(system), PokerSquares.POINT_SYSTEM_MILLIS);
+			player.seed = seed;
+			reset();
+		}
+
+		@Override
+		public void reset() {
+			player.init();
+			player.fixedDeals = 1;
+			for (int i = 0; i < fill; i++)
+				player.getPlay(Card.getCard(game.deal[i]), PokerSquares.GAME_MILLIS);
+			player.fixedDeals = DEALS_PER_PLAY;
+		}
+
+		@Override
+		public int run() {
+			int[] play = player.getPlay(Card.getCard(game.deal[fill]), PokerSquares.GAME_MILLIS);
+			return play[0] * SIZE + play[1];
+		}
+	}
+
+	/**
+	 * RandomMCPlayer.getPlay of the next card of the deal, with a fixed number of simulations per candidate play
+	 * instead of a time budget. reset() replays the game up to the board's position.
+	 */
+	public static class RandomMCGetPlay implements Workload {
+		static final int SIMULATIONS_PER_PLAY = 100;
+		private RandomMCPlayer player;
+		private SeededGame game;
+		private int fill;
+
+		@Override
+		public void setUp(String system, int fill, long seed) {
+			game = new SeededGame(seed);
+			this.fill = fill;
+			player = new RandomMCPlayer();
+			player.setPointSystem(pointSystem(system), PokerSquares.POINT_SYSTEM_MILLIS);
+			player.setSeed(seed);
+			player.setFixedSimulations(SIMULATIONS_PER_PLAY);
+			reset();
+		}
+
+		@Override
+		public void reset() {
+			player.init();
+			for (int i = 0; i < fill; i++)
+				player.makePlay(Card.getCard(game.deal[i]), game.cells[i] / SIZE, game.cells[i] % SIZE);
+		}
+
+		@Override
+		public int run() {
+			int[] play = player.getPlay(Card.getCard(game.deal[fill]), PokerSquares.GAME_MILLIS);
+			return play[0] * SIZE + play[1];
+		}
+	}
+}
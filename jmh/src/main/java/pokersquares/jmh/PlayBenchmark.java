@@ -0,0 +1,65 @@
+package pokersquares.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end ZMPlayer.getPlay with a fixed number of deals per play (Workloads.GetPlay.DEALS_PER_PLAY) and
+ * RandomMCPlayer.getPlay with a fixed number of simulations per candidate play
+ * (Workloads.RandomMCGetPlay.SIMULATIONS_PER_PLAY) rather than a time budget, so the time per play measures the cost
+ * of a fixed amount of search. Each invocation replays the seeded game up to the position first (not measured).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayBenchmark {
+
+	@Param({"British", "American", "Hypercorner"})
+	public String system;
+
+	@Param({"1", "12", "20"})
+	public int fill;
+
+	@Param({"1"})
+	public long seed;
+
+	private Workload getPlay;
+	private Workload randomMCGetPlay;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		getPlay = Workload.create("GetPlay", system, fill, seed);
+		randomMCGetPlay = Workload.create("RandomMCGetPlay", system, fill, seed);
+	}
+
+	@Setup(Level.Invocation)
+	public void reset() {
+		getPlay.reset();
+		randomMCGetPlay.reset();
+	}
+
+	@Benchmark
+	public int getPlay() {
+		return getPlay.run();
+	}
+
+	@Benchmark
+	public int randomMCGetPlay() {
+		return randomMCGetPlay.run();
+	}
+}
@@ -0,0 +1,72 @@
+package pokersquares.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Random and policy rollouts, search trials and RandomMCPlayer simulations from seeded boards with 1, 12 and 20 cards.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RolloutBenchmark {
+
+	@Param({"British", "American", "Hypercorner"})
+	public String system;
+
+	@Param({"1", "12", "20"})
+	public int fill;
+
+	@Param({"1"})
+	public long seed;
+
+	private Workload rollOut, policyRollOut, trial, arenaTrial, simPlay;
+
+	@Setup
+	public void setUp() {
+		rollOut = Workload.create("RollOut", system, fill, seed);
+		policyRollOut = Workload.create("PolicyRollOut", system, fill, seed);
+		trial = Workload.create("Trial", system, fill, seed);
+		arenaTrial = Workload.create("ArenaTrial", system, fill, seed);
+		simPlay = Workload.create("SimPlay", system, fill, seed);
+	}
+
+	@Benchmark
+	public int rollOut() {
+		return rollOut.run();
+	}
+
+	@Benchmark
+	public int policyRollOut() {
+		return policyRollOut.run();
+	}
+
+	@Benchmark
+	public int trial() {
+		return trial.run();
+	}
+
+	@Benchmark
+	public int arenaTrial() {
+		return arenaTrial.run();
+	}
+
+	@Benchmark
+	public int simPlay() {
+		return simPlay.run();
+	}
+}
@@ -0,0 +1,60 @@
+package pokersquares.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hand classification and grid scoring on seeded boards with 5, 15 and 25 cards.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoringBenchmark {
+
+	@Param({"British", "American", "Hypercorner"})
+	public String system;
+
+	@Param({"5", "15", "25"})
+	public int fill;
+
+	@Param({"1"})
+	public long seed;
+
+	private Workload getPokerHand, getScore, getHandScores;
+
+	@Setup
+	public void setUp() {
+		getPokerHand = Workload.create("GetPokerHand", system, fill, seed);
+		getScore = Workload.create("GetScore", system, fill, seed);
+		getHandScores = Workload.create("GetHandScores", system, fill, seed);
+	}
+
+	@Benchmark
+	public int getPokerHand() {
+		return getPokerHand.run();
+	}
+
+	@Benchmark
+	public int getScore() {
+		return getScore.run();
+	}
+
+	@Benchmark
+	public int getHandScores() {
+		return getHandScores.run();
+	}
+}
@@ -0,0 +1,50 @@
+package pokersquares.jmh;
+
+/**
+ * Workload - one benchmarked operation on a seeded position.
+ *
+ * The game classes live in the default package, which a named package cannot import, and JMH does not accept
+ * benchmarks in the default package. So the operations are implemented by the default-package classes nested in
+ * Workloads (jmh/src/main/java/Workloads.java), which implement this interface, and the benchmarks reach them
+ * through it. Each benchmark only ever sees one implementation, so the interface call is inlined by the JIT.
+ */
+public interface Workload {
+
+	/**
+	 * Build the seeded position.
+	 * @param system point system name: British, American or Hypercorner
+	 * @param fill number of cards on the board
+	 * @param seed seed of the board and of the workload's random number generators
+	 */
+	void setUp(String system, int fill, long seed);
+
+	/**
+	 * Restore the position after run() changed it (only needed by workloads that advance the game).
+	 */
+	default void reset() {
+	}
+
+	/**
+	 * Perform the operation once.
+	 * @return a result for the benchmark to consume
+	 */
+	int run();
+
+	/**
+	 * Create and set up the workload of the given name (a class nested in Workloads).
+	 * @param name workload name
+	 * @param system point system name
+	 * @param fill number of cards on the board
+	 * @param seed seed
+	 * @return the workload
+	 */
+	static Workload create(String name, String system, int fill, long seed) {
+		try {
+			Workload workload = (Workload) Class.forName("Workloads$" + name).getDeclaredConstructor().newInstance();
+			workload.setUp(system, fill, seed);
+			return workload;
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("no workload " + name, e);
+		}
+	}
+}